@@ -0,0 +1,197 @@
+package batch;
+
+import fluidsimulation.EngineRegistry;
+import fluidsimulation.FluidSimulation;
+import fluidsimulation.SimulationConfig;
+import export.Codec;
+import export.FrameExporter;
+import game.Main;
+import util.InjectionQueue;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// Headless runner: steps one engine as fast as possible (no frame pacing), no Swing window is created
+// writes <out>/steps.csv with the wall time of every step and <out>/final.png with the last frame
+// run with: java batch.BatchRunner --engine Eulerian --size 64 --steps 500 [--threads 1] [--seed 42] [--inject 0:256:256,10:100:400] [--script file] [--out batch-out]
+//                                    [--restore state.ckpt] [--checkpoint state.ckpt] [--checkpoint-every 100]
+//                                    [--export fields.flex] [--export-codec raw|half|delta|half-delta] [--export-buffers 8]
+//                                    [--metrics metrics.json|metrics.csv]
+// script lines are "step x y" in window coordinates like mouse input, # starts a comment
+// --restore continues a checkpointed run, its engine, size, threads and seed replace the options, steps count from 0 again
+// --checkpoint writes the state after the last step and, with --checkpoint-every, after every that many steps
+// --export streams the fields of every step to a FrameWriter file on a background thread, steps the disk cannot keep up
+// with are dropped (see the summary line), more buffers ride out longer stalls
+// --metrics writes the per-phase timing and gauge histograms of the engine after the last step, CSV if the name ends in .csv
+public class BatchRunner {
+
+    private String engine = "Eulerian";
+    private int size = Main.SQRT_PARTICLES_AMOUNT;
+    private int steps = 100;
+    private int threads = 1;
+    private Long seed = null;
+    private File out = new File("batch-out");
+    private Path restore = null;
+    private Path checkpoint = null;
+    private int checkpointEvery = 0;
+    private Path export = null;
+    private Codec exportCodec = Codec.HALF_DELTA;
+    private int exportBuffers = 8;
+    private Path metrics = null;
+
+    // scripted injections, kept sorted by step
+    private final List<int[]> injections = new ArrayList<>();
+    private final InjectionQueue queue = new InjectionQueue(1024);
+    private final int[] batchX = new int[queue.capacity()];
+    private final int[] batchY = new int[queue.capacity()];
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        BatchRunner runner = fromArgs(args);
+        runner.run();
+    }
+
+    static BatchRunner fromArgs(String[] args) throws IOException {
+        BatchRunner runner = new BatchRunner();
+        for (int k = 0; k < args.length; k += 2) {
+            if (k + 1 == args.length) throw new IllegalArgumentException("missing value for " + args[k]);
+            String value = args[k + 1];
+            switch (args[k]) {
+                case "--engine": runner.engine = value; break;
+                case "--size": runner.size = Integer.parseInt(value); break;
+                case "--steps": runner.steps = Integer.parseInt(value); break;
+                case "--threads": runner.threads = Integer.parseInt(value); break;
+                case "--seed": runner.seed = Long.parseLong(value); break;
+                case "--out": runner.out = new File(value); break;
+                case "--restore": runner.restore = Paths.get(value); break;
+                case "--checkpoint": runner.checkpoint = Paths.get(value); break;
+                case "--checkpoint-every": runner.checkpointEvery = Integer.parseInt(value); break;
+                case "--export": runner.export = Paths.get(value); break;
+                case "--export-codec": runner.exportCodec = Codec.parse(value); break;
+                case "--export-buffers": runner.exportBuffers = Integer.parseInt(value); break;
+                case "--metrics": runner.metrics = Paths.get(value); break;
+                case "--inject":
+                    for (String part : value.split(",")) runner.addInjection(part.trim().split(":"));
+                    break;
+                case "--script":
+                    for (String line : Files.readAllLines(new File(value).toPath(), StandardCharsets.UTF_8)) {
+                        int comment = line.indexOf('#');
+                        if (comment >= 0) line = line.substring(0, comment);
+                        line = line.trim();
+                        if (!line.isEmpty()) runner.addInjection(line.split("\\s+"));
+                    }
+                    break;
+                default: throw new IllegalArgumentException("unknown option " + args[k]);
+            }
+        }
+        runner.injections.sort((a, b) -> Integer.compare(a[0], b[0])); // stable, so same-step injections keep their order
+        return runner;
+    }
+
+    private void addInjection(String[] fields) {
+        if (fields.length != 3) throw new IllegalArgumentException("injection must be step x y, got " + String.join(" ", fields));
+        injections.add(new int[] {Integer.parseInt(fields[0]), Integer.parseInt(fields[1]), Integer.parseInt(fields[2])});
+    }
+
+    void run() throws IOException {
+        if (!out.isDirectory() && !out.mkdirs()) throw new IOException("cannot create " + out);
+        FluidSimulation simulation;
+        if (restore != null) {
+            simulation = EngineRegistry.restore(restore);
+            engine = simulation.getClass().getSimpleName();
+            size = simulation.config().size;
+        } else {
+            SimulationConfig config = new SimulationConfig().size(size).threads(threads);
+            if (seed != null) config.seed(seed);
+            simulation = EngineRegistry.create(engine, config);
+        }
+
+        if (metrics != null) simulation.metrics().setEnabled(true);
+        FrameExporter exporter = export == null ? null : new FrameExporter(export, engine, exportCodec, exportBuffers);
+
+        // timings are kept in memory so that file output does not disturb the measured steps
+        long[] stepNs = new long[steps];
+        int[] stepInjections = new int[steps];
+        int next = 0;
+        long total = System.nanoTime();
+        for (int step = 0; step < steps; step++) {
+            long start = System.nanoTime();
+            // scripted points go through the same queue as mouse input and are applied as one batch
+            while (next < injections.size() && injections.get(next)[0] <= step) {
+                int[] injection = injections.get(next);
+                if (!queue.offer(injection[1], injection[2])) {
+                    applyInjections(simulation); // more points than the queue holds, apply what is there and retry
+                    continue;
+                }
+                next++;
+                stepInjections[step]++;
+            }
+            applyInjections(simulation);
+            simulation.update();
+            stepNs[step] = System.nanoTime() - start;
+            if (exporter != null) exporter.offer(simulation, step);
+            if (checkpoint != null && checkpointEvery > 0 && (step + 1) % checkpointEvery == 0 && step + 1 < steps) {
+                simulation.checkpoint(checkpoint); // outside the measured step, but inside the total
+            }
+        }
+        total = System.nanoTime() - total;
+        if (checkpoint != null) simulation.checkpoint(checkpoint);
+        if (exporter != null) exporter.close();
+
+        try (PrintWriter writer = new PrintWriter(new File(out, "steps.csv"), "UTF-8")) {
+            writer.println("step,nanos,injections");
+            for (int step = 0; step < steps; step++) {
+                writer.println(step + "," + stepNs[step] + "," + stepInjections[step]);
+            }
+        }
+        if (metrics != null) writeMetrics(simulation, metrics);
+        writeFrame(simulation, new File(out, "final.png"));
+        simulation.dispose();
+
+        System.out.printf(Locale.ROOT, "%s size %d: %d steps in %.3f s (%.3f ms/step), output in %s%n",
+                engine, size, steps, total / 1e9, steps == 0 ? 0 : total / 1e6 / steps, out);
+        if (exporter != null) {
+            System.out.printf(Locale.ROOT, "exported %d of %d steps (%d dropped), %.1f MB %s in %s%n", exporter.written(),
+                    exporter.offered(), exporter.dropped(), exporter.bytes() / 1e6, exportCodec, export);
+        }
+    }
+
+    private void applyInjections(FluidSimulation simulation) {
+        int count = queue.drain(batchX, batchY);
+        if (count > 0) simulation.addFluid(batchX, batchY, count);
+    }
+
+    static void writeMetrics(FluidSimulation simulation, Path file) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            if (file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv")) {
+                simulation.metrics().writeCsv(writer);
+            } else {
+                simulation.metrics().writeJson(writer, simulation.getClass().getSimpleName());
+            }
+        }
+    }
+
+    // same picture GamePanel paints, but into an offscreen image
+    static void writeFrame(FluidSimulation simulation, File file) throws IOException {
+        BufferedImage image = new BufferedImage(Main.WIN_WIDTH, Main.WIN_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.BLACK);
+        g.fillRect(0, 0, Main.WIN_WIDTH, Main.WIN_HEIGHT);
+        simulation.render(g);
+        g.dispose();
+        ImageIO.write(image, "png", file);
+    }
+
+}
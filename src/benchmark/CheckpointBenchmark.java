@@ -0,0 +1,70 @@
+package benchmark;
+
+import fluidsimulation.EngineRegistry;
+import fluidsimulation.FluidSimulation;
+import fluidsimulation.SimulationConfig;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+// Checkpoint write and restore time of every engine, the restored instance is then stepped next to the original and
+// both must checkpoint to identical bytes, otherwise the run fails
+// run with: java benchmark.CheckpointBenchmark [--sizes 64,256] [--warmup 5] [--iterations 20] [--seed 42] [--out checkpoint.json]
+public class CheckpointBenchmark {
+
+    private static final int STEPS = 10;
+
+    public static void main(String[] args) throws IOException {
+        Harness harness = Harness.fromArgs(args);
+        Path dir = Files.createTempDirectory("checkpoint");
+        Path file = dir.resolve("state.ckpt");
+        Path check = dir.resolve("check.ckpt");
+        try {
+            for (int size : harness.sizes(64, 256)) {
+                for (String name : EngineRegistry.names()) {
+                    SimulationConfig config = new SimulationConfig().size(size).seed(harness.seed());
+                    FluidSimulation simulation = EngineRegistry.create(name, config);
+                    FluidSimulation restored = EngineRegistry.create(name, config);
+                    EngineBenchmark.inject(simulation, harness.seed());
+                    for (int i = 0; i < STEPS; i++) simulation.update();
+
+                    String sqrt = Integer.toString(size);
+                    harness.measure(name, "checkpoint", Harness.params("sqrtParticlesAmount", sqrt), () -> run(() -> simulation.checkpoint(file)));
+                    harness.measure(name, "restore", Harness.params("sqrtParticlesAmount", sqrt), () -> run(() -> restored.restore(file)));
+                    System.out.printf("%s size %d: %d bytes%n", name, size, Files.size(file));
+
+                    simulation.update();
+                    restored.update();
+                    simulation.checkpoint(file);
+                    restored.checkpoint(check);
+                    if (!Arrays.equals(Files.readAllBytes(file), Files.readAllBytes(check))) {
+                        throw new IllegalStateException(name + " size " + size + ": restored state diverged after one step");
+                    }
+                    simulation.dispose();
+                    restored.dispose();
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(check);
+            Files.deleteIfExists(dir);
+        }
+        harness.finish();
+    }
+
+    private interface IoOp {
+        void run() throws IOException;
+    }
+
+    private static void run(IoOp op) {
+        try {
+            op.run();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
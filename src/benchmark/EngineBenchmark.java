@@ -0,0 +1,38 @@
+package benchmark;
+
+import fluidsimulation.EngineRegistry;
+import fluidsimulation.FluidSimulation;
+import fluidsimulation.SimulationConfig;
+import game.Main;
+
+import java.io.IOException;
+import java.util.Random;
+
+// Full step (update()) throughput and latency of every engine at several sqrtParticlesAmount sizes
+// every engine is created from the same seed and gets the same seeded fluid injections before measuring
+// run with: java benchmark.EngineBenchmark [--sizes 16,32,64] [--warmup 20] [--iterations 50] [--seed 42] [--out engines.json]
+public class EngineBenchmark {
+
+    private static final int INJECTIONS = 64;
+
+    public static void main(String[] args) throws IOException {
+        Harness harness = Harness.fromArgs(args);
+        for (int size : harness.sizes(16, 32, 64)) {
+            for (String name : EngineRegistry.names()) {
+                FluidSimulation simulation = EngineRegistry.create(name, new SimulationConfig().size(size).seed(harness.seed()));
+                inject(simulation, harness.seed());
+                harness.measure(name, "update", Harness.params("sqrtParticlesAmount", Integer.toString(size)), simulation::update);
+                simulation.dispose();
+            }
+        }
+        harness.finish();
+    }
+
+    static void inject(FluidSimulation simulation, long seed) {
+        Random rand = new Random(seed);
+        for (int k = 0; k < INJECTIONS; k++) {
+            simulation.addFluid(rand.nextInt(Main.WIN_WIDTH), rand.nextInt(Main.WIN_HEIGHT));
+        }
+    }
+
+}
@@ -0,0 +1,149 @@
+package benchmark;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Minimal benchmark harness: warm up, then time every operation separately and keep all samples
+// reports throughput and latency percentiles, results can be exported as JSON (one record per benchmark, JMH-like fields)
+// common options: --warmup <ops> --iterations <ops> --sizes <a,b,c> --seed <long> --out <file.json>
+public class Harness {
+
+    public interface Op {
+        void run();
+    }
+
+    public static class Result {
+        public final String group;
+        public final String name;
+        public final Map<String, String> params;
+        public final long[] samples; // nanoseconds per op, sorted
+
+        Result(String group, String name, Map<String, String> params, long[] samples) {
+            this.group = group;
+            this.name = name;
+            this.params = params;
+            this.samples = samples;
+        }
+
+        public double meanNs() {
+            double sum = 0;
+            for (long s : samples) sum += s;
+            return sum / samples.length;
+        }
+
+        public long percentileNs(double p) {
+            int idx = (int) Math.ceil(p / 100.0 * samples.length) - 1;
+            return samples[Math.max(0, Math.min(samples.length - 1, idx))];
+        }
+
+        public double opsPerSecond() {
+            return 1e9 / meanNs();
+        }
+    }
+
+    private static final double[] PERCENTILES = {50, 90, 99, 100};
+
+    private int warmupOps = 20;
+    private int measuredOps = 50;
+    private int[] sizes = null;
+    private long seed = 42;
+    private String out = null;
+
+    private final List<Result> results = new ArrayList<>();
+
+    public static Harness fromArgs(String[] args) {
+        Harness harness = new Harness();
+        for (int k = 0; k < args.length; k += 2) {
+            if (k + 1 == args.length) throw new IllegalArgumentException("missing value for " + args[k]);
+            String value = args[k + 1];
+            switch (args[k]) {
+                case "--warmup": harness.warmupOps = Integer.parseInt(value); break;
+                case "--iterations": harness.measuredOps = Integer.parseInt(value); break;
+                case "--seed": harness.seed = Long.parseLong(value); break;
+                case "--out": harness.out = value; break;
+                case "--sizes":
+                    String[] parts = value.split(",");
+                    harness.sizes = new int[parts.length];
+                    for (int i = 0; i < parts.length; i++) harness.sizes[i] = Integer.parseInt(parts[i].trim());
+                    break;
+                default: throw new IllegalArgumentException("unknown option " + args[k]);
+            }
+        }
+        return harness;
+    }
+
+    public int[] sizes(int... defaults) {
+        return sizes != null ? sizes : defaults;
+    }
+
+    public long seed() {
+        return seed;
+    }
+
+    public static Map<String, String> params(String... keyValues) {
+        Map<String, String> params = new LinkedHashMap<>();
+        for (int k = 0; k + 1 < keyValues.length; k += 2) params.put(keyValues[k], keyValues[k + 1]);
+        return params;
+    }
+
+    public Result measure(String group, String name, Map<String, String> params, Op op) {
+        for (int k = 0; k < warmupOps; k++) op.run();
+
+        long[] samples = new long[measuredOps];
+        for (int k = 0; k < measuredOps; k++) {
+            long start = System.nanoTime();
+            op.run();
+            samples[k] = System.nanoTime() - start;
+        }
+        Arrays.sort(samples);
+
+        Result result = new Result(group, name, params, samples);
+        results.add(result);
+        System.out.printf(Locale.ROOT, "%-18s %-24s %-20s %10.1f ops/s  mean %9.3f ms  p50 %9.3f  p99 %9.3f  max %9.3f%n",
+                group, name, params, result.opsPerSecond(), result.meanNs() / 1e6,
+                result.percentileNs(50) / 1e6, result.percentileNs(99) / 1e6, result.percentileNs(100) / 1e6);
+        return result;
+    }
+
+    // writes results to --out if given
+    public void finish() throws IOException {
+        if (out == null) return;
+        try (PrintWriter writer = new PrintWriter(out, "UTF-8")) {
+            writer.println("[");
+            for (int r = 0; r < results.size(); r++) {
+                Result result = results.get(r);
+                writer.println("  {");
+                writer.printf(Locale.ROOT, "    \"benchmark\": \"%s.%s\",%n", result.group, result.name);
+                writer.println("    \"params\": {" + joinParams(result.params) + "},");
+                writer.printf(Locale.ROOT, "    \"seed\": %d,%n", seed);
+                writer.printf(Locale.ROOT, "    \"warmupOps\": %d,%n", warmupOps);
+                writer.printf(Locale.ROOT, "    \"measuredOps\": %d,%n", measuredOps);
+                writer.printf(Locale.ROOT, "    \"throughput\": {\"score\": %.3f, \"scoreUnit\": \"ops/s\"},%n", result.opsPerSecond());
+                writer.printf(Locale.ROOT, "    \"latency\": {\"mean\": %.1f, \"scoreUnit\": \"ns/op\", \"percentiles\": {", result.meanNs());
+                for (int p = 0; p < PERCENTILES.length; p++) {
+                    writer.printf(Locale.ROOT, "%s\"%.1f\": %d", p > 0 ? ", " : "", PERCENTILES[p], result.percentileNs(PERCENTILES[p]));
+                }
+                writer.println("}}");
+                writer.println(r + 1 < results.size() ? "  }," : "  }");
+            }
+            writer.println("]");
+        }
+        System.out.println("wrote " + results.size() + " results to " + out);
+    }
+
+    private static String joinParams(Map<String, String> params) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> e : params.entrySet()) {
+            if (sb.length() > 0) sb.append(", ");
+            sb.append('"').append(e.getKey()).append("\": \"").append(e.getValue()).append('"');
+        }
+        return sb.toString();
+    }
+
+}
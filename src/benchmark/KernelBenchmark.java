@@ -0,0 +1,24 @@
+package benchmark;
+
+import fluidsimulation.gridbased.EulerianKernelBenchmark;
+import fluidsimulation.gridbased.QuadtreeKernelBenchmark;
+import fluidsimulation.particlebased.SphKernelBenchmark;
+
+import java.io.IOException;
+
+// Individual kernels of every engine (linearSolve, project, advect, quadtree passes, SPH density/force/integrate passes)
+// kept apart from EngineBenchmark so full steps and kernels can be gated separately
+// run with: java benchmark.KernelBenchmark [--sizes 32,64,128] [--warmup 20] [--iterations 50] [--seed 42] [--out kernels.json]
+public class KernelBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        Harness harness = Harness.fromArgs(args);
+        for (int size : harness.sizes(32, 64, 128)) {
+            EulerianKernelBenchmark.run(harness, size);
+            QuadtreeKernelBenchmark.run(harness, size);
+            SphKernelBenchmark.run(harness, size);
+        }
+        harness.finish();
+    }
+
+}
@@ -0,0 +1,44 @@
+package benchmark;
+
+import fluidsimulation.EngineRegistry;
+import fluidsimulation.FluidSimulation;
+import fluidsimulation.SimulationConfig;
+import game.Main;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+// Cost of drawing one frame of every engine into a window sized offscreen image, the engines are stepped a few times
+// first so the grids have density and the particles have spread
+// run with: java benchmark.RenderBenchmark [--sizes 32,64,128] [--warmup 20] [--iterations 50] [--seed 42] [--out render.json]
+public class RenderBenchmark {
+
+    private static final int STEPS = 10;
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        Harness harness = Harness.fromArgs(args);
+
+        BufferedImage image = new BufferedImage(Main.WIN_WIDTH, Main.WIN_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        for (int size : harness.sizes(32, 64, 128)) {
+            for (String name : EngineRegistry.names()) {
+                FluidSimulation simulation = EngineRegistry.create(name, new SimulationConfig().size(size).seed(harness.seed()));
+                EngineBenchmark.inject(simulation, harness.seed());
+                for (int i = 0; i < STEPS; i++) simulation.update();
+
+                harness.measure(name, "render", Harness.params("sqrtParticlesAmount", Integer.toString(size)), () -> {
+                    g.setColor(Color.BLACK);
+                    g.fillRect(0, 0, Main.WIN_WIDTH, Main.WIN_HEIGHT);
+                    simulation.render(g);
+                });
+                simulation.dispose();
+            }
+        }
+        g.dispose();
+        harness.finish();
+    }
+
+}
@@ -0,0 +1,89 @@
+package export;
+
+import java.util.Locale;
+
+// How FrameWriter stores a field, chosen once per file
+// - RAW: little endian float32, nothing else
+// - HALF: quantized to float16 (about 3 significant digits), then compressed
+// - DELTA: lossless, float bits xor the field of the previous written frame, then compressed
+// - HALF_DELTA: both, the smallest for smooth fields
+// compressed payloads are byte planes (all low bytes, then the next bytes, ...) run through Deflater, slowly changing
+// high bytes then become long runs
+public enum Codec {
+    RAW(0, false, false),
+    HALF(1, true, false),
+    DELTA(2, false, true),
+    HALF_DELTA(3, true, true);
+
+    public final int id;
+    public final boolean half;
+    public final boolean delta;
+
+    Codec(int id, boolean half, boolean delta) {
+        this.id = id;
+        this.half = half;
+        this.delta = delta;
+    }
+
+    int bytesPerValue() {
+        return half ? 2 : 4;
+    }
+
+    int word(float value) {
+        return half ? toHalf(value) : Float.floatToRawIntBits(value);
+    }
+
+    float value(int word) {
+        return half ? fromHalf(word) : Float.intBitsToFloat(word);
+    }
+
+    public static Codec byId(int id) {
+        for (Codec codec : values()) {
+            if (codec.id == id) return codec;
+        }
+        throw new IllegalArgumentException("unknown codec " + id);
+    }
+
+    // accepts the enum name in any case, with - for _
+    public static Codec parse(String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+
+    // IEEE 754 binary16 bits of value, rounded to nearest even, out of range values become infinity
+    static int toHalf(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = (bits >>> 23) & 0xff;
+        int mantissa = bits & 0x7fffff;
+        if (exponent == 0xff) return sign | 0x7c00 | (mantissa != 0 ? 0x200 : 0); // infinity, NaN
+        int e = exponent - 127 + 15;
+        if (e >= 0x1f) return sign | 0x7c00;
+        if (e <= 0) { // subnormal half
+            if (e < -10) return sign;
+            mantissa |= 0x800000;
+            int shift = 14 - e;
+            int half = mantissa >> shift;
+            int rest = mantissa & ((1 << shift) - 1);
+            int middle = 1 << (shift - 1);
+            if (rest > middle || (rest == middle && (half & 1) != 0)) half++;
+            return sign | half;
+        }
+        int half = (e << 10) | (mantissa >> 13);
+        int rest = mantissa & 0x1fff;
+        if (rest > 0x1000 || (rest == 0x1000 && (half & 1) != 0)) half++; // a carry into the exponent is still correct
+        return sign | half;
+    }
+
+    static float fromHalf(int half) {
+        int sign = (half & 0x8000) << 16;
+        int exponent = (half >>> 10) & 0x1f;
+        int mantissa = half & 0x3ff;
+        if (exponent == 0x1f) return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        if (exponent == 0) {
+            float value = mantissa * 0x1p-24f; // subnormal or zero
+            return sign != 0 ? -value : value;
+        }
+        return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+    }
+
+}
@@ -0,0 +1,104 @@
+package export;
+
+import fluidsimulation.FieldFrame;
+import fluidsimulation.FluidSimulation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+
+// Streams the fields of every offered step to a FrameWriter file on a background I/O thread
+// a fixed pool of frames moves between the simulation thread and the I/O thread, so memory stays bounded
+// backpressure: when all frames are still waiting for the disk, offer() drops the step instead of blocking,
+// the caller sees false and dropped() counts it, more buffers absorb longer disk stalls
+public class FrameExporter implements AutoCloseable {
+
+    private static final FieldFrame END = new FieldFrame();
+
+    private final ArrayBlockingQueue<FieldFrame> free;
+    private final ArrayBlockingQueue<FieldFrame> ready;
+    private final FrameWriter writer;
+    private final Thread thread;
+
+    private volatile IOException failure = null;
+    private long offered = 0; // simulation thread only
+    private long dropped = 0;
+    private boolean closed = false;
+
+    public FrameExporter(Path file, String engine, Codec codec, int buffers) throws IOException {
+        if (buffers < 1) throw new IllegalArgumentException("need at least one buffer, got " + buffers);
+        this.free = new ArrayBlockingQueue<>(buffers);
+        this.ready = new ArrayBlockingQueue<>(buffers + 1); // + END
+        for (int i = 0; i < buffers; i++) free.add(new FieldFrame());
+        this.writer = new FrameWriter(Files.newOutputStream(file), codec, engine);
+        this.thread = new Thread(this::drain, "frame-exporter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // simulation thread, between steps: copies the fields of the current state, never waits for the I/O thread
+    public boolean offer(FluidSimulation simulation, long step) {
+        offered++;
+        FieldFrame frame = failure == null && !closed ? free.poll() : null;
+        if (frame == null) {
+            dropped++;
+            return false;
+        }
+        frame.clear();
+        frame.step = step;
+        simulation.exportFields(frame);
+        ready.add(frame); // cannot be full, there are only as many frames as free slots
+        return true;
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                FieldFrame frame = ready.take();
+                if (frame == END) return;
+                writer.write(frame);
+                free.add(frame);
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long offered() {
+        return offered;
+    }
+
+    public long dropped() {
+        return dropped;
+    }
+
+    // valid after close()
+    public long written() {
+        return writer.frames();
+    }
+
+    public long bytes() {
+        return writer.bytes();
+    }
+
+    // waits until every accepted frame is on disk, rethrows the first write error
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        ready.add(END);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while flushing frames", e);
+        } finally {
+            writer.close();
+        }
+        if (failure != null) throw failure;
+    }
+
+}
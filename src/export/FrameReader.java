@@ -0,0 +1,151 @@
+package export;
+
+import fluidsimulation.FieldFrame;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+// Reads a FrameWriter file from the start, one frame per next() call into a reused FieldFrame
+// a chunk cut off by a crash of the writing process ends the file like a clean end does
+public class FrameReader implements Closeable {
+
+    private final DataInputStream in;
+    private final Codec codec;
+    private final String engine;
+    private final Inflater inflater = new Inflater();
+
+    private int[][] previous = new int[0][];
+    private String[] previousName = new String[0];
+    private int[] previousSize = new int[0];
+
+    private byte[] chunk = new byte[0];
+    private byte[] payload = new byte[0];
+    private byte[] planes = new byte[0];
+    private long frames = 0;
+
+    public FrameReader(Path file) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+        try {
+            if (in.readInt() != FrameWriter.MAGIC) throw new IOException(file + " is not a frame export");
+            int version = in.readInt();
+            if (version != FrameWriter.VERSION) throw new IOException(file + " has export version " + version + ", expected " + FrameWriter.VERSION);
+            this.codec = Codec.byId(in.readInt());
+            this.engine = in.readUTF();
+        } catch (IOException | IllegalArgumentException e) {
+            in.close();
+            throw e instanceof IOException ? (IOException) e : new IOException(file + ": " + e.getMessage(), e);
+        }
+    }
+
+    public Codec codec() {
+        return codec;
+    }
+
+    public String engine() {
+        return engine;
+    }
+
+    // replaces the fields of frame with the next frame, false at the end of the file
+    public boolean next(FieldFrame frame) throws IOException {
+        int length;
+        try {
+            if (in.readInt() != FrameWriter.FRAME) throw new IOException("frame export is corrupt after frame " + frames);
+            length = in.readInt();
+            if (chunk.length < length) chunk = new byte[length];
+            in.readFully(chunk, 0, length);
+        } catch (EOFException e) {
+            return false;
+        }
+
+        DataInputStream body = new DataInputStream(new ByteArrayInputStream(chunk, 0, length));
+        frame.clear();
+        frame.step = body.readLong();
+        int count = body.readInt();
+        if (previous.length < count) {
+            previous = Arrays.copyOf(previous, count);
+            previousName = Arrays.copyOf(previousName, count);
+            previousSize = Arrays.copyOf(previousSize, count);
+        }
+        for (int f = 0; f < count; f++) {
+            String name = body.readUTF();
+            int width = body.readInt();
+            int height = body.readInt();
+            boolean delta = body.readBoolean();
+            int size = width * height;
+            if (delta && (!name.equals(previousName[f]) || previousSize[f] != size)) {
+                throw new IOException("delta field " + name + " of frame " + frames + " has no matching previous field");
+            }
+            int packedLength = body.readInt();
+            if (payload.length < packedLength) payload = new byte[packedLength];
+            body.readFully(payload, 0, packedLength);
+            decode(f, packedLength, frame.field(name, width, height), size, delta);
+            previousName[f] = name;
+            previousSize[f] = size;
+        }
+        frames++;
+        return true;
+    }
+
+    private void decode(int f, int packedLength, float[] values, int size, boolean delta) throws IOException {
+        if (codec == Codec.RAW) {
+            if (packedLength != size * 4) throw new IOException("raw field of " + size + " values has " + packedLength + " bytes");
+            for (int i = 0; i < size; i++) {
+                int bits = (payload[4 * i] & 0xff) | (payload[4 * i + 1] & 0xff) << 8
+                        | (payload[4 * i + 2] & 0xff) << 16 | (payload[4 * i + 3] & 0xff) << 24;
+                values[i] = Float.intBitsToFloat(bits);
+            }
+            return;
+        }
+
+        int width = codec.bytesPerValue();
+        int length = size * width;
+        if (planes.length < length) planes = new byte[length];
+        inflater.reset();
+        inflater.setInput(payload, 0, packedLength);
+        try {
+            int n = 0;
+            while (n < length && !inflater.finished()) {
+                int inflated = inflater.inflate(planes, n, length - n);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                n += inflated;
+            }
+            if (n != length) throw new IOException("field of " + size + " values inflated to " + n + " bytes");
+        } catch (DataFormatException e) {
+            throw new IOException("frame export is corrupt in frame " + frames, e);
+        }
+
+        int[] last = null;
+        if (codec.delta) {
+            if (previous[f] == null || previous[f].length < size) previous[f] = new int[size];
+            last = previous[f];
+        }
+        for (int i = 0; i < size; i++) {
+            int word = 0;
+            for (int b = 0; b < width; b++) {
+                word |= (planes[b * size + i] & 0xff) << (8 * b);
+            }
+            if (delta) word ^= last[i];
+            if (last != null) last[i] = word;
+            values[i] = codec.value(word);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            in.close();
+        } finally {
+            inflater.end();
+        }
+    }
+
+}
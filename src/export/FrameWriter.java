@@ -0,0 +1,151 @@
+package export;
+
+import fluidsimulation.FieldFrame;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+// Chunked field file, one self-delimiting chunk per frame so that a reader can skip frames or stop at a torn tail
+// header: "FLEX", version, codec id, engine name
+// chunk: "FRME", body length, then step, field count and per field name, width, height, delta flag, payload length, payload
+// delta fields refer to the same field of the previous chunk, every KEY_INTERVAL-th chunk is stored whole so that
+// a reader can start there
+class FrameWriter implements Closeable {
+
+    static final int MAGIC = 0x464c4558; // "FLEX"
+    static final int FRAME = 0x46524d45; // "FRME"
+    static final int VERSION = 1;
+    static final int KEY_INTERVAL = 32;
+
+    private final DataOutputStream out;
+    private final Codec codec;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+    // chunk body, built first so that its length can go in front of it
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream(1 << 16);
+    private final DataOutputStream bodyOut = new DataOutputStream(body);
+
+    // words of every field as last written, by field index, for delta codecs
+    private int[][] previous = new int[0][];
+    private String[] previousName = new String[0];
+    private int[] previousSize = new int[0];
+
+    private byte[] planes = new byte[0];
+    private byte[] packed = new byte[64];
+    private long frames = 0;
+    private long bytes = 0;
+
+    FrameWriter(OutputStream stream, Codec codec, String engine) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+        this.codec = codec;
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(codec.id);
+        out.writeUTF(engine);
+        bytes = out.size();
+    }
+
+    void write(FieldFrame frame) throws IOException {
+        boolean key = frames % KEY_INTERVAL == 0;
+        int count = frame.fieldCount();
+        if (previous.length < count) {
+            previous = Arrays.copyOf(previous, count);
+            previousName = Arrays.copyOf(previousName, count);
+            previousSize = Arrays.copyOf(previousSize, count);
+        }
+
+        body.reset();
+        bodyOut.writeLong(frame.step);
+        bodyOut.writeInt(count);
+        for (int f = 0; f < count; f++) {
+            FieldFrame.Field field = frame.field(f);
+            int size = field.size();
+            boolean delta = codec.delta && !key && field.name.equals(previousName[f]) && previousSize[f] == size;
+            int length = encode(f, field.values, size, delta);
+            bodyOut.writeUTF(field.name);
+            bodyOut.writeInt(field.width);
+            bodyOut.writeInt(field.height);
+            bodyOut.writeBoolean(delta);
+            bodyOut.writeInt(length);
+            bodyOut.write(packed, 0, length);
+            previousName[f] = field.name;
+            previousSize[f] = size;
+        }
+
+        out.writeInt(FRAME);
+        out.writeInt(body.size());
+        body.writeTo(out);
+        bytes += 8 + body.size();
+        frames++;
+    }
+
+    // packs the first size values of field f into packed, returns the byte count
+    private int encode(int f, float[] values, int size, boolean delta) {
+        if (codec == Codec.RAW) {
+            ensurePacked(size * 4);
+            for (int i = 0; i < size; i++) {
+                int bits = Float.floatToRawIntBits(values[i]);
+                packed[4 * i] = (byte) bits;
+                packed[4 * i + 1] = (byte) (bits >>> 8);
+                packed[4 * i + 2] = (byte) (bits >>> 16);
+                packed[4 * i + 3] = (byte) (bits >>> 24);
+            }
+            return size * 4;
+        }
+
+        int[] last = null;
+        if (codec.delta) {
+            if (previous[f] == null || previous[f].length < size) previous[f] = new int[size];
+            last = previous[f];
+        }
+        int width = codec.bytesPerValue();
+        int length = size * width;
+        if (planes.length < length) planes = new byte[length];
+        for (int i = 0; i < size; i++) {
+            int word = codec.word(values[i]);
+            int stored = delta ? word ^ last[i] : word;
+            if (last != null) last[i] = word;
+            for (int b = 0; b < width; b++) {
+                planes[b * size + i] = (byte) (stored >>> (8 * b));
+            }
+        }
+
+        deflater.reset();
+        deflater.setInput(planes, 0, length);
+        deflater.finish();
+        int n = 0;
+        while (!deflater.finished()) {
+            if (n == packed.length) packed = Arrays.copyOf(packed, packed.length * 2);
+            n += deflater.deflate(packed, n, packed.length - n);
+        }
+        return n;
+    }
+
+    private void ensurePacked(int length) {
+        if (packed.length < length) packed = new byte[Math.max(length, packed.length * 2)];
+    }
+
+    long frames() {
+        return frames;
+    }
+
+    long bytes() {
+        return bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            out.close();
+        } finally {
+            deflater.end();
+        }
+    }
+
+}
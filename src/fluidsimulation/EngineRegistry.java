@@ -0,0 +1,67 @@
+package fluidsimulation;
+
+import fluidsimulation.gridbased.Eulerian;
+import fluidsimulation.gridbased.QuadtreeEulerian;
+import fluidsimulation.particlebased.GridLagrangian;
+import fluidsimulation.particlebased.Lagrangian;
+import util.Checkpoint;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Engines by name, the built-in ones are registered first and further engines can be added at runtime
+// every create() call builds an independent instance from its own copy of the config
+public class EngineRegistry {
+
+    public interface Factory {
+        FluidSimulation create(SimulationConfig config);
+    }
+
+    private static final Map<String, Factory> engines = new LinkedHashMap<>();
+
+    static {
+        register("Eulerian", Eulerian::new);
+        register("QuadtreeEulerian", QuadtreeEulerian::new);
+        register("Lagrangian", Lagrangian::new);
+        register("GridLagrangian", GridLagrangian::new);
+    }
+
+    public static synchronized void register(String name, Factory factory) {
+        engines.put(name, factory);
+    }
+
+    public static synchronized List<String> names() {
+        return new ArrayList<>(engines.keySet());
+    }
+
+    public static FluidSimulation create(String name, SimulationConfig config) {
+        Factory factory;
+        synchronized (EngineRegistry.class) {
+            factory = engines.get(name);
+        }
+        if (factory == null) throw new IllegalArgumentException("unknown engine " + name + ", expected one of " + names());
+        return factory.create(config.copy());
+    }
+
+    // a new instance of the engine a checkpoint was written by, with the config it was written with, continuing from it
+    // checkpoints record the engine's class name, so this finds engines registered under their class name
+    public static FluidSimulation restore(Path file) throws IOException {
+        Checkpoint.Reader in = Checkpoint.open(file);
+        String name = in.getString();
+        SimulationConfig config = FluidSimulation.readConfig(in);
+        FluidSimulation simulation = create(name, config.copy().fill(false)); // the initial fluid would be overwritten anyway
+        try {
+            simulation.restore(name, config, in);
+        } catch (IOException e) {
+            simulation.dispose();
+            throw e;
+        }
+        simulation.config().fill(true);
+        return simulation;
+    }
+
+}
@@ -0,0 +1,51 @@
+package fluidsimulation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Named float fields of one step for offline export, e.g. density per grid cell or x per particle
+// grid fields are width x height in screen order (values[x + y * width]), particle fields are count x 1
+// the arrays are reused from step to step, engines add their fields in the same order every time
+public class FieldFrame {
+
+    public static class Field {
+        public String name;
+        public int width;
+        public int height;
+        public float[] values = new float[0]; // may be longer than width * height
+
+        public int size() {
+            return width * height;
+        }
+    }
+
+    public long step;
+
+    private final List<Field> fields = new ArrayList<>();
+    private int count = 0;
+
+    public void clear() {
+        count = 0;
+    }
+
+    // array to copy the named field into, grown (not cleared) if the previous step's field was smaller
+    public float[] field(String name, int width, int height) {
+        if (count == fields.size()) fields.add(new Field());
+        Field field = fields.get(count++);
+        field.name = name;
+        field.width = width;
+        field.height = height;
+        int size = width * height;
+        if (field.values.length < size) field.values = new float[Math.max(size, field.values.length * 2)];
+        return field.values;
+    }
+
+    public int fieldCount() {
+        return count;
+    }
+
+    public Field field(int index) {
+        return fields.get(index);
+    }
+
+}
@@ -1,14 +1,179 @@
 package fluidsimulation;
 
 import java.awt.Graphics;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import util.Checkpoint;
+import util.StateRandom;
+import util.TripleBuffer;
 
 public abstract class FluidSimulation {
 
+    // copy of everything render() reads, so a frame can be drawn on another thread while the next step runs
+    public static abstract class Snapshot {
+        private final Metrics.Summary metrics = new Metrics.Summary();
+        private boolean hasMetrics = false;
+
+        protected abstract void capture(); // called on the simulation thread, reuses its arrays once they are big enough
+
+        public abstract void render(Graphics g);
+
+        // metrics as of this snapshot, null unless captureMetrics(true) was set when it was published
+        public Metrics.Summary metrics() {
+            return hasMetrics ? metrics : null;
+        }
+    }
+
+    protected final SimulationConfig config;
+
+    // the simulation thread captures into the back buffer and publishes it, the renderer takes the latest one
+    private volatile TripleBuffer<Snapshot> snapshots;
+    private Snapshot direct;
+    private volatile boolean captureMetrics = false;
+
+    // phase timings and gauges of every update(), engines add their own phases and gauges at construction
+    protected final Metrics metrics = new Metrics();
+
+    protected FluidSimulation(SimulationConfig config) {
+        this.config = config;
+    }
+
+    // a StateRandom so that checkpoints can store its state
+    protected StateRandom createRandom() {
+        return config.seed == null ? new StateRandom() : new StateRandom(config.seed);
+    }
+
+    public SimulationConfig config() {
+        return config;
+    }
+
     protected abstract void init(int sqrtParticlesAmount, int particlesAmount);
 
-    public abstract void update();
+    public final void update() {
+        metrics.beginFrame();
+        step();
+        metrics.endFrame();
+    }
+
+    // one timestep, engines lap their metrics phases in here
+    protected abstract void step();
+
+    // simulation thread only, read between steps
+    public Metrics metrics() {
+        return metrics;
+    }
+
+    // whether publish() copies a metrics summary into the snapshots, for an on-screen overlay
+    public void captureMetrics(boolean capture) {
+        captureMetrics = capture;
+    }
+
+    public boolean isCapturingMetrics() {
+        return captureMetrics;
+    }
 
     public abstract void addFluid(int mouseX, int mouseY);
 
-    public abstract void render(Graphics g);
+    // the first count points of a drained injection batch, same result as calling addFluid on each point in order
+    public void addFluid(int[] mouseX, int[] mouseY, int count) {
+        for (int k = 0; k < count; k++) {
+            addFluid(mouseX[k], mouseY[k]);
+        }
+    }
+
+    // update() calls per displayed frame, for engines whose timestep is much shorter than a frame
+    public int substepsPerFrame() {
+        return 1;
+    }
+
+    // releases worker threads, the instance must not be used afterwards
+    public void dispose() {
+    }
+
+    // per-step fields for offline rendering, simulation thread only, call between steps
+    public abstract void exportFields(FieldFrame frame);
+
+    // everything update(), addFluid() and render() depend on, state derived within a step may be left out
+    protected abstract void writeState(Checkpoint.Writer out) throws IOException;
+
+    // reads what writeState wrote into an instance built with the same size and area
+    protected abstract void readState(Checkpoint.Reader in) throws IOException;
+
+    // simulation thread only, call between steps
+    public void checkpoint(Path file) throws IOException {
+        Checkpoint.write(file, out -> {
+            out.putString(getClass().getSimpleName());
+            writeConfig(config, out);
+            writeState(out);
+        });
+    }
+
+    // continues from a checkpoint of the same engine, size and area, simulation thread only, call between steps
+    public void restore(Path file) throws IOException {
+        Checkpoint.Reader in = Checkpoint.open(file);
+        String engine = in.getString();
+        restore(engine, readConfig(in), in);
+    }
+
+    // the rest of a checkpoint after its header
+    void restore(String engine, SimulationConfig saved, Checkpoint.Reader in) throws IOException {
+        if (!engine.equals(getClass().getSimpleName())) {
+            throw new IOException("checkpoint of " + engine + " cannot be restored into " + getClass().getSimpleName());
+        }
+        if (saved.size != config.size || saved.width != config.width || saved.height != config.height) {
+            throw new IOException("checkpoint is size " + saved.size + " in " + saved.width + "x" + saved.height
+                    + ", engine is size " + config.size + " in " + config.width + "x" + config.height);
+        }
+        readState(in);
+        in.finish();
+    }
+
+    static void writeConfig(SimulationConfig config, Checkpoint.Writer out) {
+        out.putInt(config.size);
+        out.putInt(config.particles);
+        out.putInt(config.threads);
+        out.putInt(config.width);
+        out.putInt(config.height);
+        out.putBoolean(config.seed != null);
+        out.putLong(config.seed == null ? 0 : config.seed);
+    }
+
+    static SimulationConfig readConfig(Checkpoint.Reader in) throws IOException {
+        SimulationConfig config = new SimulationConfig().size(in.getInt()).particles(in.getInt()).threads(in.getInt());
+        config.area(in.getInt(), in.getInt());
+        boolean seeded = in.getBoolean();
+        long seed = in.getLong();
+        if (seeded) config.seed(seed);
+        return config;
+    }
+
+    protected abstract Snapshot createSnapshot();
+
+    // simulation thread only, call between steps
+    public void publish() {
+        TripleBuffer<Snapshot> buffers = snapshots;
+        if (buffers == null) {
+            buffers = new TripleBuffer<>(createSnapshot(), createSnapshot(), createSnapshot());
+        }
+        Snapshot back = buffers.back();
+        back.capture();
+        back.hasMetrics = captureMetrics;
+        if (captureMetrics) back.metrics.capture(metrics);
+        buffers.publish();
+        snapshots = buffers;
+    }
+
+    // render thread only, null until the first publish(), the returned snapshot is safe to draw until the next call
+    public Snapshot latest() {
+        TripleBuffer<Snapshot> buffers = snapshots;
+        return buffers == null ? null : buffers.front();
+    }
+
+    // draws the live state, only for callers on the simulation thread (e.g. headless runs)
+    public void render(Graphics g) {
+        if (direct == null) direct = createSnapshot();
+        direct.capture();
+        direct.render(g);
+    }
 }
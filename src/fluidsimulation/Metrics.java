@@ -0,0 +1,262 @@
+package fluidsimulation;
+
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import util.Histogram;
+
+// Per-frame instrumentation of one engine: phase timings and gauges (solver iterations and residuals, leaf or particle
+// counts, ...), each frame's total of every phase and gauge goes into its own histogram
+// engines create their phases and gauges at construction and only add numbers inside update(), which brackets every
+// frame and adds the whole update() time and the bytes the simulation thread allocated in it, nothing is allocated
+// while recording; worker threads of parallel passes are timed by the phase around them, their allocation is not seen
+public class Metrics {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 100};
+
+    private static final com.sun.management.ThreadMXBean THREADS = allocationBean();
+
+    public abstract static class Series {
+        public final String name;
+        public final String unit;
+        final double scale; // recorded value = reported value * scale
+        final Histogram histogram = new Histogram();
+        long frame = 0; // running total of the current frame
+        boolean touched = false;
+        long last = 0; // total of the last finished frame
+
+        Series(String name, String unit, double scale) {
+            this.name = name;
+            this.unit = unit;
+            this.scale = scale;
+        }
+
+        void endFrame() {
+            if (!touched) return;
+            histogram.record(frame);
+            last = frame;
+            frame = 0;
+            touched = false;
+        }
+
+        public double last() {
+            return last / scale;
+        }
+
+        public double percentile(double p) {
+            return histogram.percentile(p) / scale;
+        }
+
+        public double mean() {
+            return histogram.mean() / scale;
+        }
+
+        public long frames() {
+            return histogram.count();
+        }
+    }
+
+    // time spent in one part of update(), summed if the part runs several times per frame
+    public static class Phase extends Series {
+        private final Metrics metrics;
+
+        Phase(Metrics metrics, String name) {
+            super(name, "ms", 1e6);
+            this.metrics = metrics;
+        }
+
+        // closes a lap that started at start (from Metrics.now() or the previous lap), returns the start of the next one
+        public long lap(long start) {
+            if (!metrics.enabled) return 0;
+            long now = System.nanoTime();
+            frame += now - start;
+            touched = true;
+            return now;
+        }
+    }
+
+    // a count or measurement of the frame, fractional values are kept at 1 / scale resolution
+    public static class Gauge extends Series {
+        Gauge(String name, String unit, double scale) {
+            super(name, unit, scale);
+        }
+
+        public void set(long value) {
+            frame = value;
+            touched = true;
+        }
+
+        public void set(double value) {
+            set(Math.round(value * scale));
+        }
+
+        public void add(long value) {
+            frame += value;
+            touched = true;
+        }
+    }
+
+    private final List<Series> series = new ArrayList<>();
+    private final Phase update;
+    private final Gauge allocated;
+    private boolean enabled = false;
+    private long frameStart;
+    private long allocationStart;
+
+    Metrics() {
+        update = phase("update");
+        allocated = THREADS == null ? null : gauge("allocated", "bytes", 1);
+    }
+
+    public Phase phase(String name) {
+        Phase phase = new Phase(this, name);
+        series.add(phase);
+        return phase;
+    }
+
+    public Gauge gauge(String name, String unit, double scale) {
+        Gauge gauge = new Gauge(name, unit, scale);
+        series.add(gauge);
+        return gauge;
+    }
+
+    public Gauge gauge(String name) {
+        return gauge(name, "", 1);
+    }
+
+    // off until someone reads the numbers (a --metrics dump, the overlay), a disabled instance records nothing and
+    // phases then cost one branch each, engines may also skip measurements that only feed a gauge
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // start of the first lap
+    public long now() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    void beginFrame() {
+        if (!enabled) return;
+        if (allocated != null) allocationStart = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+        frameStart = System.nanoTime();
+    }
+
+    void endFrame() {
+        if (!enabled) return;
+        update.lap(frameStart);
+        if (allocated != null) allocated.set(THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocationStart);
+        for (int i = 0; i < series.size(); i++) series.get(i).endFrame();
+    }
+
+    public List<Series> series() {
+        return series;
+    }
+
+    public void reset() {
+        for (Series s : series) {
+            s.histogram.reset();
+            s.frame = 0;
+            s.touched = false;
+            s.last = 0;
+        }
+    }
+
+    // one row per phase or gauge, values in the reported unit
+    public void writeCsv(PrintWriter writer) {
+        writer.print("kind,name,unit,frames,mean,min");
+        for (double p : PERCENTILES) writer.print(p == 100 ? ",max" : ",p" + (int) p);
+        writer.println();
+        for (Series s : series) {
+            writer.printf(Locale.ROOT, "%s,%s,%s,%d,%.6g,%.6g", s instanceof Phase ? "phase" : "gauge", s.name, s.unit,
+                    s.frames(), s.mean(), s.histogram.min() / s.scale);
+            for (double p : PERCENTILES) writer.printf(Locale.ROOT, ",%.6g", s.percentile(p));
+            writer.println();
+        }
+    }
+
+    public void writeJson(PrintWriter writer, String engine) {
+        writer.println("{");
+        writer.printf(Locale.ROOT, "  \"engine\": \"%s\",%n", engine);
+        writer.println("  \"series\": [");
+        for (int i = 0; i < series.size(); i++) {
+            Series s = series.get(i);
+            writer.printf(Locale.ROOT, "    {\"kind\": \"%s\", \"name\": \"%s\", \"unit\": \"%s\", \"frames\": %d, \"mean\": %.6g, \"min\": %.6g, \"percentiles\": {",
+                    s instanceof Phase ? "phase" : "gauge", s.name, s.unit, s.frames(), s.mean(), s.histogram.min() / s.scale);
+            for (int p = 0; p < PERCENTILES.length; p++) {
+                writer.printf(Locale.ROOT, "%s\"%.1f\": %.6g", p > 0 ? ", " : "", PERCENTILES[p], s.percentile(PERCENTILES[p]));
+            }
+            writer.println(i + 1 < series.size() ? "}}," : "}}");
+        }
+        writer.println("  ]");
+        writer.println("}");
+    }
+
+    // copy of the numbers an overlay shows, filled on the simulation thread by FluidSimulation.publish()
+    public static class Summary {
+        private String[] names = new String[0];
+        private String[] units = new String[0];
+        private double[] last = new double[0];
+        private double[] p50 = new double[0];
+        private double[] p99 = new double[0];
+        private int count;
+
+        void capture(Metrics metrics) {
+            count = metrics.series.size();
+            if (names.length < count) {
+                names = new String[count];
+                units = new String[count];
+                last = new double[count];
+                p50 = new double[count];
+                p99 = new double[count];
+            }
+            for (int i = 0; i < count; i++) {
+                Series s = metrics.series.get(i);
+                names[i] = s.name;
+                units[i] = s.unit;
+                last[i] = s.last();
+                p50[i] = s.percentile(50);
+                p99[i] = s.percentile(99);
+            }
+        }
+
+        public int count() {
+            return count;
+        }
+
+        public String name(int i) {
+            return names[i];
+        }
+
+        public String unit(int i) {
+            return units[i];
+        }
+
+        public double last(int i) {
+            return last[i];
+        }
+
+        public double p50(int i) {
+            return p50[i];
+        }
+
+        public double p99(int i) {
+            return p99[i];
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return null;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        return threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled() ? threads : null;
+    }
+
+}
@@ -0,0 +1,63 @@
+package fluidsimulation;
+
+import game.Main;
+
+// Per-instance engine settings, every engine copies what it needs at construction so instances never share state
+public class SimulationConfig {
+
+    public int size = Main.SQRT_PARTICLES_AMOUNT; // sqrtParticlesAmount: grid cells per side, particles per spawn row for SPH
+    public int particles = -1; // particlesAmount, -1 -> size * size
+    public int threads = 1; // > 1 switches engines with parallel phases to their parallel mode
+    public int width = Main.WIN_WIDTH; // simulated area in window pixels
+    public int height = Main.WIN_HEIGHT;
+    public Long seed = null; // null -> unseeded, set to reproduce a run
+    public boolean fill = true; // false -> engines start without their initial fluid, for instances a checkpoint is restored into
+
+    public SimulationConfig size(int size) {
+        this.size = size;
+        return this;
+    }
+
+    public SimulationConfig particles(int particles) {
+        this.particles = particles;
+        return this;
+    }
+
+    public SimulationConfig threads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    public SimulationConfig area(int width, int height) {
+        this.width = width;
+        this.height = height;
+        return this;
+    }
+
+    public SimulationConfig seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public SimulationConfig fill(boolean fill) {
+        this.fill = fill;
+        return this;
+    }
+
+    public int particlesAmount() {
+        return particles < 0 ? size * size : particles;
+    }
+
+    public SimulationConfig copy() {
+        SimulationConfig copy = new SimulationConfig();
+        copy.size = size;
+        copy.particles = particles;
+        copy.threads = threads;
+        copy.width = width;
+        copy.height = height;
+        copy.seed = seed;
+        copy.fill = fill;
+        return copy;
+    }
+
+}
@@ -0,0 +1,83 @@
+package fluidsimulation.gridbased;
+
+import fluidsimulation.SimulationConfig;
+import fluidsimulation.gridbased.refinement.RefinementPolicy;
+import util.QuadTree;
+
+import java.util.Arrays;
+import java.util.Random;
+
+// Checks the incrementally maintained neighbor cache of QuadtreeEulerian against a full rebuild after every step
+// and prints how much of the cache was reused
+// run with: java fluidsimulation.gridbased.AdjacencyCheck [size] [steps] [balanced]
+// balanced uses face weighted stencils on a 2:1 balanced tree and also checks the balance
+public class AdjacencyCheck {
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        boolean balanced = args.length > 2 && args[2].equals("balanced");
+        QuadtreeEulerian simulation = new QuadtreeEulerian(new SimulationConfig().size(size).particles(size * size).seed(1));
+        if (balanced) {
+            simulation.useRefinementPolicy(RefinementPolicy.density().balanced());
+            simulation.useFaceWeightedStencils(true);
+        }
+        Random rand = new Random(1);
+        QuadTree tree = simulation.tree();
+
+        for (int step = 0; step < steps; step++) {
+            if (step % 10 == 0) simulation.addFluid(rand.nextInt(512), rand.nextInt(512));
+            simulation.update();
+
+            int[] leaves = Arrays.copyOf(tree.leaves, tree.leafCount);
+            int[] start = Arrays.copyOf(tree.nbrStart, tree.leafCount * QuadTree.DIRECTIONS + 1);
+            int[] nbr = Arrays.copyOf(tree.nbr, start[start.length - 1]);
+            float[] weight = Arrays.copyOf(tree.nbrWeight, nbr.length);
+            float[] lapWeight = Arrays.copyOf(tree.lapWeight, nbr.length);
+            float[] lapDiag = Arrays.copyOf(tree.lapDiag, leaves.length);
+            int[] owner = tree.owner.clone();
+
+            // the rebuild is not counted
+            long relinks = tree.relinks, recomputed = tree.recomputedLeaves, reused = tree.reusedLeaves;
+            tree.invalidateAll();
+            tree.relink();
+            tree.relinks = relinks;
+            tree.recomputedLeaves = recomputed;
+            tree.reusedLeaves = reused;
+
+            boolean same = Arrays.equals(leaves, Arrays.copyOf(tree.leaves, tree.leafCount))
+                    && Arrays.equals(start, Arrays.copyOf(tree.nbrStart, start.length))
+                    && Arrays.equals(nbr, Arrays.copyOf(tree.nbr, nbr.length))
+                    && Arrays.equals(weight, Arrays.copyOf(tree.nbrWeight, weight.length))
+                    && Arrays.equals(lapWeight, Arrays.copyOf(tree.lapWeight, lapWeight.length))
+                    && Arrays.equals(lapDiag, Arrays.copyOf(tree.lapDiag, lapDiag.length))
+                    && Arrays.equals(owner, tree.owner);
+            if (!same) {
+                System.out.println("FAIL: cached adjacency differs from a full rebuild after step " + step);
+                System.exit(1);
+            }
+            if (balanced && !isBalanced(tree)) {
+                System.out.println("FAIL: tree is not 2:1 balanced after step " + step);
+                System.exit(1);
+            }
+        }
+
+        long recomputed = simulation.getRecomputedLeaves();
+        long reused = simulation.getReusedLeaves();
+        System.out.printf("OK: %d steps, %d relinks, %d leaves searched, %d reused (%.1f%%), %d leaves now%n",
+                steps, simulation.getAdjacencyRelinks(), recomputed, reused,
+                100.0 * reused / Math.max(1, recomputed + reused), tree.leafCount);
+    }
+
+    private static boolean isBalanced(QuadTree tree) {
+        for (int k = 0; k < tree.leafCount; k++) {
+            for (int e = tree.nbrStart[k * QuadTree.DIRECTIONS]; e < tree.nbrStart[(k + 1) * QuadTree.DIRECTIONS]; e++) {
+                int m = tree.nbr[e];
+                if (m >= tree.borderCount && Math.abs(tree.depth[m] - tree.depth[tree.leaves[k]]) > 1) return false;
+            }
+        }
+        return true;
+    }
+
+}
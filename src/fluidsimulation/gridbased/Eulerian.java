@@ -1,24 +1,50 @@
 package fluidsimulation.gridbased;
 
-import java.util.Random;
+import java.io.IOException;
+import java.util.Arrays;
 import java.awt.Color;
 import java.awt.Graphics;
 
+import fluidsimulation.FieldFrame;
 import fluidsimulation.FluidSimulation;
-import game.Main;
+import fluidsimulation.Metrics;
+import fluidsimulation.SimulationConfig;
+import fluidsimulation.gridbased.solver.Boundary;
+import fluidsimulation.gridbased.solver.GaussSeidelSolver;
+import fluidsimulation.gridbased.solver.LinearSolver;
+import fluidsimulation.gridbased.solver.RedBlackGaussSeidelSolver;
+import util.Checkpoint;
+import util.ColorTable;
+import util.PixelRaster;
+import util.StateRandom;
 
 // Eulerian MAC with Semi-Lagrangian advection scheme
 public class Eulerian extends FluidSimulation {
 
-    public static int N = 16; // N for size
-    public static int CELL_WIDTH = Main.WIN_WIDTH / N;
-    public static int CELL_HEIGHT = Main.WIN_HEIGHT / N;
+    private int N; // N for size
+    private int CELL_WIDTH;
+    private int CELL_HEIGHT;
 
     private static final int ITERATIONS = 10;
     private static final float DT = 0.5f; // timestep
     private static final float DIFF = 0.00001f;
     private static final float VISC = 0.00001f;
 
+    private static final ColorTable COLORS = new ColorTable(255f, 4096, dens -> Color.HSBtoRGB(dens / 255f, 0.8f, 1f));
+
+    private LinearSolver diffusionSolver;
+    private LinearSolver pressureSolver;
+
+    // solver stats of the last update, summed over all solves
+    private int frameIterations;
+    private float frameResidual; // worst final residual of the pressure solves
+
+    private final Metrics.Phase diffusePhase = metrics.phase("diffuse");
+    private final Metrics.Phase projectPhase = metrics.phase("project");
+    private final Metrics.Phase advectPhase = metrics.phase("advect");
+    private final Metrics.Gauge iterationsGauge = metrics.gauge("solver iterations");
+    private final Metrics.Gauge residualGauge = metrics.gauge("pressure residual", "relative", 1e9);
+
     private float[] s;
     private float[] density; // density of fluid surface (or fluid "dye")
 
@@ -28,7 +54,7 @@ public class Eulerian extends FluidSimulation {
     private float[] Vx0; // prev Vx
     private float[] Vy0; // prev Vy
 
-    private Random rand;
+    private StateRandom rand;
 
     public void addDensity(int x, int y, float amount) {
         this.density[IX(x, y)] += amount;
@@ -64,9 +90,9 @@ public class Eulerian extends FluidSimulation {
 
     @Override
     protected void init(int sqrtParticlesAmount, int particlesAmount) {
-        Eulerian.N = sqrtParticlesAmount;
-        Eulerian.CELL_WIDTH = Main.WIN_WIDTH / Eulerian.N;
-        Eulerian.CELL_HEIGHT = Main.WIN_HEIGHT / Eulerian.N;
+        this.N = sqrtParticlesAmount;
+        this.CELL_WIDTH = config.width / N;
+        this.CELL_HEIGHT = config.height / N;
 
         this.s = new float[N * N];
         this.density = new float[N * N];
@@ -77,7 +103,7 @@ public class Eulerian extends FluidSimulation {
         this.Vx0 = new float[N * N];
         this.Vy0 = new float[N * N];
 
-        rand = new Random();
+        rand = createRandom();
         // two fluid bodies colliding
         /*for (int i = 0; i < N / 5; i++) {
             for (int j = 0; j < N / 5; j++) {
@@ -93,12 +119,57 @@ public class Eulerian extends FluidSimulation {
         }*/
     }
 
+    public Eulerian(SimulationConfig config) { // config.threads > 1 -> parallel red-black Gauss-Seidel for all solves
+        super(config);
+        if (config.threads > 1) {
+            LinearSolver redBlack = new RedBlackGaussSeidelSolver(config.threads, ITERATIONS, 0f);
+            useSolvers(redBlack, redBlack);
+        } else {
+            useSolvers(new GaussSeidelSolver(ITERATIONS, 0f), new GaussSeidelSolver(ITERATIONS, 0f));
+        }
+        init(config.size, config.particlesAmount());
+    }
+
+    public Eulerian(SimulationConfig config, LinearSolver pressureSolver) { // diffusion keeps Gauss-Seidel
+        super(config);
+        useSolvers(new GaussSeidelSolver(ITERATIONS, 0f), pressureSolver);
+        init(config.size, config.particlesAmount());
+    }
+
     public Eulerian(int sqrtParticlesAmount, int particlesAmount) {
-        init(sqrtParticlesAmount, particlesAmount);
+        this(new SimulationConfig().size(sqrtParticlesAmount).particles(particlesAmount));
+    }
+
+    public Eulerian(int sqrtParticlesAmount, int particlesAmount, int solverThreads) { // same solvers as config.threads
+        this(new SimulationConfig().size(sqrtParticlesAmount).particles(particlesAmount).threads(solverThreads));
+    }
+
+    public Eulerian(int sqrtParticlesAmount, int particlesAmount, LinearSolver pressureSolver) { // diffusion keeps Gauss-Seidel
+        this(new SimulationConfig().size(sqrtParticlesAmount).particles(particlesAmount), pressureSolver);
+    }
+
+    private void useSolvers(LinearSolver diffusion, LinearSolver pressure) {
+        diffusionSolver = diffusion;
+        pressureSolver = pressure;
     }
 
     @Override
-    public void update() {
+    public void dispose() {
+        diffusionSolver.shutdown();
+        pressureSolver.shutdown();
+    }
+
+    public int getSolverIterations() {
+        return frameIterations;
+    }
+
+    // NaN with the fixed-iteration default solvers unless metrics are enabled
+    public float getSolverResidual() {
+        return frameResidual;
+    }
+
+    @Override
+    protected void step() {
         /*// TMP CONSTANT FLUID, TODO: make abstract, add as GUI feature
         int x1 = (int)(N * 0.4f);
         int y1 = (int)(N * 0.4f);
@@ -109,45 +180,138 @@ public class Eulerian extends FluidSimulation {
         addDensity(x2, y2, rand.nextFloat() * 200f + 650f);
         addVelocity(x2, y2, rand.nextFloat() * -2f - 1f, rand.nextFloat() * -2f - 1f);*/
 
+        frameIterations = 0;
+        frameResidual = 0f;
+        pressureSolver.trackResidual(metrics.isEnabled()); // the residual pass is only paid for when it is recorded
+        long lap = metrics.now();
+
         // velocity step
         diffuse(1, Vx0, Vx, VISC, DT); // diffuse velocities
         diffuse(2, Vy0, Vy, VISC, DT);
+        lap = diffusePhase.lap(lap);
 
         project(Vx0, Vy0, Vx, Vy); // maintain incompressibility
+        lap = projectPhase.lap(lap);
 
         advect(1, Vx, Vx0, Vx0, Vy0, DT); // advect velocities
         advect(2, Vy, Vy0, Vx0, Vy0, DT);
+        lap = advectPhase.lap(lap);
 
         project(Vx, Vy, Vx0, Vy0); // maintain incompressibility
+        lap = projectPhase.lap(lap);
 
         // density step
         diffuse(0, s, density, DIFF, DT * 10); // diffuse fluid surface "dye"
+        lap = diffusePhase.lap(lap);
         advect(0, density, s, Vx, Vy, DT); // advect fluid surface "dye"
+        advectPhase.lap(lap);
+
+        iterationsGauge.set(frameIterations);
+        residualGauge.set(frameResidual);
     }
 
     @Override
     public void addFluid(int mouseX, int mouseY) {
-        int j = (mouseX) / Eulerian.CELL_WIDTH;
-        j = clamp(j, 1, Eulerian.N - 2);
-        int i = (mouseY) / Eulerian.CELL_HEIGHT;
-        i = clamp(i, 1, Eulerian.N - 2);
+        int j = (mouseX) / CELL_WIDTH;
+        j = clamp(j, 1, N - 2);
+        int i = (mouseY) / CELL_HEIGHT;
+        i = clamp(i, 1, N - 2);
 
         addDensity(i, j, 250f); //rand.nextFloat() * 500f);
         addVelocity(i, j, (rand.nextFloat() - 0.5f) * 2f * 10f, (rand.nextFloat() - 0.5f) * 2f * 10f);
     }
 
     @Override
-    public void render(Graphics g) {
-        for (int i = 0; i < N; i++) {
-            for (int j = 0; j < N; j++) {
-                float dens = density[IX(i, j)];
-                if (dens > 0f) {
-                    Color color = new Color(Color.HSBtoRGB((dens % 255) / 255f, 0.8f, 1f));
-                    g.setColor(color);
-
-                    int x = j * CELL_WIDTH;
-                    int y = i * CELL_HEIGHT;
-                    g.fillRect(x, y, CELL_WIDTH, CELL_HEIGHT);
+    public void addFluid(int[] mouseX, int[] mouseY, int count) {
+        for (int k = 0; k < count; k++) {
+            int i = clamp(mouseY[k] / CELL_HEIGHT, 1, N - 2);
+            int j = clamp(mouseX[k] / CELL_WIDTH, 1, N - 2);
+            int idx = i + j * N; // interior after the clamp, no IX needed
+            density[idx] += 250f;
+            Vx[idx] += (rand.nextFloat() - 0.5f) * 2f * 10f;
+            Vy[idx] += (rand.nextFloat() - 0.5f) * 2f * 10f;
+        }
+    }
+
+    // the fields are stored with the screen row as the fast index, so they are transposed into screen order on the way out,
+    // Vx moves along that index and is the screen y velocity, Vy the screen x velocity
+    @Override
+    public void exportFields(FieldFrame frame) {
+        transpose(density, frame.field("density", N, N));
+        transpose(Vy, frame.field("vx", N, N));
+        transpose(Vx, frame.field("vy", N, N));
+    }
+
+    private void transpose(float[] field, float[] out) {
+        for (int y = 0; y < N; y++) {
+            for (int x = 0; x < N; x++) {
+                out[x + y * N] = field[y + x * N];
+            }
+        }
+    }
+
+    // the scratch fields too, the solvers start from whatever they hold
+    @Override
+    protected void writeState(Checkpoint.Writer out) throws IOException {
+        for (float[] field : new float[][] { density, s, Vx, Vy, Vx0, Vy0 }) {
+            out.putFloats(field, N * N);
+        }
+        out.putRandom(rand);
+    }
+
+    @Override
+    protected void readState(Checkpoint.Reader in) throws IOException {
+        for (float[] field : new float[][] { density, s, Vx, Vy, Vx0, Vy0 }) {
+            in.getFloats(field, N * N);
+        }
+        rand = in.getRandom();
+    }
+
+    @Override
+    protected Snapshot createSnapshot() {
+        return new Frame();
+    }
+
+    private class Frame extends Snapshot {
+        private int n;
+        private int cellWidth;
+        private int cellHeight;
+        private float[] density = new float[0];
+        private final PixelRaster raster = new PixelRaster(config.width, config.height);
+
+        @Override
+        protected void capture() {
+            n = N;
+            cellWidth = CELL_WIDTH;
+            cellHeight = CELL_HEIGHT;
+            if (density.length != Eulerian.this.density.length) density = new float[Eulerian.this.density.length];
+            System.arraycopy(Eulerian.this.density, 0, density, 0, density.length);
+        }
+
+        @Override
+        public void render(Graphics g) {
+            raster.draw(this::drawRows);
+            raster.blit(g);
+        }
+
+        // cell row by cell row, the first pixel row of a cell row is shaded and the rest are copies of it
+        private void drawRows(int yFrom, int yTo) {
+            int[] pixels = raster.pixels;
+            int width = raster.width;
+            int columns = Math.min(n, width / cellWidth);
+            for (int y = yFrom; y < yTo; y++) {
+                int i = y / cellHeight;
+                if (i >= n) break;
+                if (y > yFrom && y % cellHeight != 0) {
+                    System.arraycopy(pixels, (y - 1) * width, pixels, y * width, columns * cellWidth);
+                    continue;
+                }
+                for (int j = 0; j < columns; j++) {
+                    float dens = density[i + j * n];
+                    if (dens > 0f) {
+                        int x = j * cellWidth;
+                        Arrays.fill(pixels, y * width + x, y * width + x + cellWidth, COLORS.rgb(dens % 255));
+                    }
                 }
             }
         }
@@ -161,75 +325,54 @@ public class Eulerian extends FluidSimulation {
         return x;
     }
 
-    private static int IX(int i, int j) { // 2D indexes -> 1D index (IX)
+    private int IX(int i, int j) { // 2D indexes -> 1D index (IX)
         i = clamp(i, 0, N - 1);
         j = clamp(j, 0, N - 1);
         return i + (j * N);
     }
 
-    // b = which array x is -> how to set bounding cells
-    private static void setBounds(int b, float[] x) { // bound fluid into box, fluid bounces off walls with opposite velocities
-        // setting 1 through N - 2, to only set edges and avoid corners
-        for (int i = 1; i < N - 1; i++) {
-            x[IX(i, 0)] = b == 2 ? -x[IX(i, 1)] : x[IX(i, 1)];
-            x[IX(i, N - 1)] = b == 2 ? -x[IX(i, N - 2)] : x[IX(i, N - 2)];
-        }
-        for (int j = 1; j < N - 1; j++) {
-            x[IX(0, j)] = b == 1 ? -x[IX(1, j)] : x[IX(1, j)];
-            x[IX(N - 1, j)] = b == 1 ? -x[IX(N - 2, j)] : x[IX(N - 2, j)];
-        }
-
-        // corner cells set to average of two edge cell neighbors
-        x[IX(0, 0)] = 0.5f * (x[IX(1, 0)] + x[IX(0, 1)]);
-        x[IX(0, N - 1)] = 0.5f * (x[IX(1, N - 1)] + x[IX(0, N - 2)]);
-        x[IX(N - 1, 0)] = 0.5f * (x[IX(N - 2, 0)] + x[IX(N - 1, 1)]);
-        x[IX(N - 1, N - 1)] = 0.5f * (x[IX(N - 2, N - 1)] + x[IX(N - 1, N - 2)]);
+    private void setBounds(int b, float[] x) {
+        Boundary.setBounds(b, x, N);
     }
 
-    // could use conjugate gradient solver
-    private static void linearSolve(int b, float[] x, float[] x0, float a, float c) { // Uses Gauss-Seidel method to solve linear differential equation
-        float cRecip = 1.0f / c;
-        for (int k = 0; k < ITERATIONS; k++) {
-            for (int j = 1; j < N - 1; j++) {
-                for (int i = 1; i < N - 1; i++) {
-                    x[IX(i, j)] = (x0[IX(i, j)] + a * (
-                            x[IX(i + 1, j)] + x[IX(i - 1, j)] + x[IX(i, j + 1)] + x[IX(i, j - 1)]
-                        )) * cRecip;
-                }
-            }
-
-            setBounds(b, x);
-        }
+    void linearSolve(LinearSolver solver, int b, float[] x, float[] x0, float a, float c) {
+        solver.solve(b, x, x0, a, c, N);
+        frameIterations += solver.iterations();
     }
 
-    private static void diffuse(int b, float[] x, float[] x0, float diff, float dt) { // spread fluid surface density and fluid velocity
+    private void diffuse(int b, float[] x, float[] x0, float diff, float dt) { // spread fluid surface density and fluid velocity
         float a = dt * diff * (N - 2) * (N - 2); // (N - 2)^2 = area of all non-boundary cells
-        linearSolve(b, x, x0, a, 1 + 4 * a);
+        linearSolve(diffusionSolver, b, x, x0, a, 1 + 4 * a);
     }
 
-    // could use conjugate gradient solver
-    private static void project(float[] vX, float[] vY, float[] p, float[] div) { // maintain fluid incompressibility, i.e. stop fluid box net outflow/inflow
+    // interior kernels index with precomputed row offsets (idx +- 1, idx +- N) instead of clamping IX, the edges are left to setBounds
+    void project(float[] vX, float[] vY, float[] p, float[] div) { // maintain fluid incompressibility, i.e. stop fluid box net outflow/inflow
         for (int j = 1; j < N - 1; j++) {
+            int row = j * N;
             for (int i = 1; i < N - 1; i++) {
-                div[IX(i, j)] = -0.5f *
+                int idx = row + i;
+                div[idx] = -0.5f *
                     (
-                        vX[IX(i + 1, j)] -
-                        vX[IX(i - 1, j)] +
-                        vY[IX(i, j + 1)] -
-                        vY[IX(i, j - 1)]
+                        vX[idx + 1] -
+                        vX[idx - 1] +
+                        vY[idx + N] -
+                        vY[idx - N]
                     ) / N;
-                p[IX(i, j)] = 0;
+                p[idx] = 0;
             }
         }
         setBounds(0, div);
         setBounds(0, p);
 
-        linearSolve(0, p, div, 1, 4);
+        linearSolve(pressureSolver, 0, p, div, 1, 4);
+        frameResidual = Math.max(frameResidual, pressureSolver.residual());
 
         for (int j = 1; j < N - 1; j++) {
+            int row = j * N;
             for (int i = 1; i < N - 1; i++) {
-                vX[IX(i, j)] -= 0.5f * (p[IX(i + 1, j)] - p[IX(i - 1, j)]) * N;
-                vY[IX(i, j)] -= 0.5f * (p[IX(i, j + 1)] - p[IX(i, j - 1)]) * N;
+                int idx = row + i;
+                vX[idx] -= 0.5f * (p[idx + 1] - p[idx - 1]) * N;
+                vY[idx] -= 0.5f * (p[idx + N] - p[idx - N]) * N;
             }
         }
         setBounds(1, vX);
@@ -237,8 +380,8 @@ public class Eulerian extends FluidSimulation {
     }
 
     // Semi-Lagrangian advection
-    private static void advect(int b, float[] d, float[] d0, float[] vX, float[] vY, float dt) { // use linear backtrace with linear interpolation to apply velocity field to fluid surface density and fluid velocity
-        float i0, i1, j0, j1;
+    void advect(int b, float[] d, float[] d0, float[] vX, float[] vY, float dt) { // use linear backtrace with linear interpolation to apply velocity field to fluid surface density and fluid velocity
+        float i0, j0;
 
         float dtX = dt * (N - 2);
         float dtY = dt * (N - 2);
@@ -247,33 +390,33 @@ public class Eulerian extends FluidSimulation {
         float x, y;
 
         for (int j = 1; j < N - 1; j++) {
+            int row = j * N;
             for (int i = 1; i < N - 1; i++) {
-                x = i - dtX * vX[IX(i, j)];
-                y = j - dtY * vY[IX(i, j)];
+                int idx = row + i;
+                x = i - dtX * vX[idx];
+                y = j - dtY * vY[idx];
 
                 if (x < 0.5f) x = 0.5f;
                 if (x > N + 0.5f) x = N + 0.5f;
                 i0 = (int) (x); // equivalent to floor(x)
-                i1 = i0 + 1.0f;
                 if (y < 0.5f) y = 0.5f;
                 if (y > N + 0.5f) y = N + 0.5f;
                 j0 = (int) (y); // equivalent to floor(y)
-                j1 = j0 + 1.0f;
 
                 s1 = x - i0;
                 s0 = 1.0f - s1;
                 t1 = y - j0;
                 t0 = 1.0f - t1;
 
-                // convert floats to ints ('i' last character means int)
-                int i0i = (int) (i0);
-                int i1i = (int) (i1);
-                int j0i = (int) (j0);
-                int j1i = (int) (j1);
+                // convert floats to ints ('i' last character means int), x and y >= 0.5 so only the upper edge needs clamping
+                int i0i = Math.min((int) (i0), N - 1);
+                int i1i = Math.min((int) (i0) + 1, N - 1);
+                int j0i = Math.min((int) (j0), N - 1) * N;
+                int j1i = Math.min((int) (j0) + 1, N - 1) * N;
 
-                d[IX(i, j)] =
-                    s0 * (t0 * d0[IX(i0i, j0i)] + t1 * d0[IX(i0i, j1i)]) +
-                    s1 * (t0 * d0[IX(i1i, j0i)] + t1 * d0[IX(i1i, j1i)]);
+                d[idx] =
+                    s0 * (t0 * d0[i0i + j0i] + t1 * d0[i0i + j1i]) +
+                    s1 * (t0 * d0[i1i + j0i] + t1 * d0[i1i + j1i]);
             }
         }
 
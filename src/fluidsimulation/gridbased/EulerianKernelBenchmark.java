@@ -0,0 +1,40 @@
+package fluidsimulation.gridbased;
+
+import benchmark.Harness;
+import fluidsimulation.gridbased.solver.GaussSeidelSolver;
+import fluidsimulation.gridbased.solver.LinearSolver;
+
+import java.util.Map;
+import java.util.Random;
+
+// Eulerian kernels for benchmark.KernelBenchmark, on seeded random fields
+public class EulerianKernelBenchmark {
+
+    private static final float DT = 0.5f;
+
+    private static float[] random(Random rand, int n, float scale) {
+        float[] x = new float[n * n];
+        for (int k = 0; k < x.length; k++) x[k] = (rand.nextFloat() - 0.5f) * 2f * scale;
+        return x;
+    }
+
+    public static void run(Harness harness, int size) {
+        Eulerian eulerian = new Eulerian(size, size * size); // N and the default Gauss-Seidel pressure solver
+        Random rand = new Random(harness.seed());
+        float[] vX = random(rand, size, 1f);
+        float[] vY = random(rand, size, 1f);
+        float[] d0 = random(rand, size, 100f);
+        float[] d = new float[size * size];
+        float[] p = new float[size * size];
+        float[] div = new float[size * size];
+
+        LinearSolver solver = new GaussSeidelSolver(10, 0f);
+        float a = DT * 0.00001f * (size - 2) * (size - 2) * 10;
+        Map<String, String> params = Harness.params("N", Integer.toString(size));
+
+        harness.measure("Eulerian", "linearSolve", params, () -> eulerian.linearSolve(solver, 0, d, d0, a, 1 + 4 * a));
+        harness.measure("Eulerian", "project", params, () -> eulerian.project(vX, vY, p, div));
+        harness.measure("Eulerian", "advect", params, () -> eulerian.advect(0, d, d0, vX, vY, DT));
+    }
+
+}
@@ -0,0 +1,185 @@
+package fluidsimulation.gridbased;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import fluidsimulation.gridbased.solver.GaussSeidelSolver;
+
+// Compares the row offset interior kernels of Eulerian with the previous versions that clamp both indices in IX on every access
+// the legacy kernels are kept here only as the baseline, both versions must produce bit-identical fields
+// run with: java fluidsimulation.gridbased.IndexingBenchmark [sizes...]
+public class IndexingBenchmark {
+
+    private static final int ITERATIONS = 10;
+    private static final int REPEATS = 30;
+    private static final float DT = 0.5f;
+
+    private interface Kernel {
+        void run();
+    }
+
+    public static void main(String[] args) {
+        int[] sizes = {128, 256, 512};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int k = 0; k < args.length; k++) sizes[k] = Integer.parseInt(args[k]);
+        }
+
+        boolean identical = true;
+        System.out.println("N\tkernel\tlegacy ms\trow offset ms\tspeedup\tidentical");
+        for (int n : sizes) {
+            Eulerian eulerian = new Eulerian(n, n * n); // N and the Gauss-Seidel pressure solver
+            Random rand = new Random(42);
+            float[] vX = random(rand, n, 1f);
+            float[] vY = random(rand, n, 1f);
+            float[] d0 = random(rand, n, 100f);
+
+            float[] legacyX = vX.clone(), legacyY = vY.clone(), legacyP = new float[n * n], legacyDiv = new float[n * n];
+            float[] newX = vX.clone(), newY = vY.clone(), newP = new float[n * n], newDiv = new float[n * n];
+            identical &= report(n, "project",
+                    () -> { reset(legacyX, vX, legacyY, vY); legacyProject(n, legacyX, legacyY, legacyP, legacyDiv); },
+                    () -> { reset(newX, vX, newY, vY); eulerian.project(newX, newY, newP, newDiv); },
+                    legacyX, newX);
+
+            float[] legacyD = new float[n * n], newD = new float[n * n];
+            identical &= report(n, "advect",
+                    () -> legacyAdvect(n, 0, legacyD, d0, vX, vY, DT),
+                    () -> eulerian.advect(0, newD, d0, vX, vY, DT),
+                    legacyD, newD);
+
+            float[] legacyS = new float[n * n], newS = new float[n * n];
+            float a = DT * 0.00001f * (n - 2) * (n - 2) * 10;
+            identical &= report(n, "linearSolve",
+                    () -> { Arrays.fill(legacyS, 0f); legacyLinearSolve(n, 0, legacyS, d0, a, 1 + 4 * a); },
+                    () -> { Arrays.fill(newS, 0f); new GaussSeidelSolver(ITERATIONS, 0f).solve(0, newS, d0, a, 1 + 4 * a, n); },
+                    legacyS, newS);
+        }
+        if (!identical) {
+            System.out.println("MISMATCH between legacy and row offset kernels");
+            System.exit(1);
+        }
+    }
+
+    private static float[] random(Random rand, int n, float scale) {
+        float[] x = new float[n * n];
+        for (int k = 0; k < x.length; k++) x[k] = (rand.nextFloat() - 0.5f) * 2f * scale;
+        return x;
+    }
+
+    private static void reset(float[] x, float[] x0, float[] y, float[] y0) {
+        System.arraycopy(x0, 0, x, 0, x.length);
+        System.arraycopy(y0, 0, y, 0, y.length);
+    }
+
+    private static boolean report(int n, String name, Kernel legacy, Kernel current, float[] legacyOut, float[] currentOut) {
+        double legacyMs = time(legacy);
+        double currentMs = time(current);
+        boolean identical = Arrays.equals(legacyOut, currentOut);
+        System.out.printf("%d\t%s\t%.3f\t%.3f\t%.2fx\t%b%n", n, name, legacyMs, currentMs, legacyMs / currentMs, identical);
+        return identical;
+    }
+
+    private static double time(Kernel kernel) {
+        for (int r = 0; r < REPEATS; r++) kernel.run(); // warm up
+        long start = System.nanoTime();
+        for (int r = 0; r < REPEATS; r++) kernel.run();
+        return (System.nanoTime() - start) / 1e6 / REPEATS;
+    }
+
+    /*--------------------------------**  legacy kernels  **--------------------------------*/
+
+    private static int clamp(int x, int a, int b) {
+        if (x < a) return a;
+        if (x > b) return b;
+        return x;
+    }
+
+    private static int IX(int n, int i, int j) {
+        i = clamp(i, 0, n - 1);
+        j = clamp(j, 0, n - 1);
+        return i + (j * n);
+    }
+
+    private static void legacySetBounds(int n, int b, float[] x) {
+        for (int i = 1; i < n - 1; i++) {
+            x[IX(n, i, 0)] = b == 2 ? -x[IX(n, i, 1)] : x[IX(n, i, 1)];
+            x[IX(n, i, n - 1)] = b == 2 ? -x[IX(n, i, n - 2)] : x[IX(n, i, n - 2)];
+        }
+        for (int j = 1; j < n - 1; j++) {
+            x[IX(n, 0, j)] = b == 1 ? -x[IX(n, 1, j)] : x[IX(n, 1, j)];
+            x[IX(n, n - 1, j)] = b == 1 ? -x[IX(n, n - 2, j)] : x[IX(n, n - 2, j)];
+        }
+        x[IX(n, 0, 0)] = 0.5f * (x[IX(n, 1, 0)] + x[IX(n, 0, 1)]);
+        x[IX(n, 0, n - 1)] = 0.5f * (x[IX(n, 1, n - 1)] + x[IX(n, 0, n - 2)]);
+        x[IX(n, n - 1, 0)] = 0.5f * (x[IX(n, n - 2, 0)] + x[IX(n, n - 1, 1)]);
+        x[IX(n, n - 1, n - 1)] = 0.5f * (x[IX(n, n - 2, n - 1)] + x[IX(n, n - 1, n - 2)]);
+    }
+
+    private static void legacyLinearSolve(int n, int b, float[] x, float[] x0, float a, float c) {
+        float cRecip = 1.0f / c;
+        for (int k = 0; k < ITERATIONS; k++) {
+            for (int j = 1; j < n - 1; j++) {
+                for (int i = 1; i < n - 1; i++) {
+                    x[IX(n, i, j)] = (x0[IX(n, i, j)] + a * (
+                            x[IX(n, i + 1, j)] + x[IX(n, i - 1, j)] + x[IX(n, i, j + 1)] + x[IX(n, i, j - 1)]
+                        )) * cRecip;
+                }
+            }
+            legacySetBounds(n, b, x);
+        }
+    }
+
+    private static void legacyProject(int n, float[] vX, float[] vY, float[] p, float[] div) {
+        for (int j = 1; j < n - 1; j++) {
+            for (int i = 1; i < n - 1; i++) {
+                div[IX(n, i, j)] = -0.5f * (vX[IX(n, i + 1, j)] - vX[IX(n, i - 1, j)] + vY[IX(n, i, j + 1)] - vY[IX(n, i, j - 1)]) / n;
+                p[IX(n, i, j)] = 0;
+            }
+        }
+        legacySetBounds(n, 0, div);
+        legacySetBounds(n, 0, p);
+
+        legacyLinearSolve(n, 0, p, div, 1, 4);
+
+        for (int j = 1; j < n - 1; j++) {
+            for (int i = 1; i < n - 1; i++) {
+                vX[IX(n, i, j)] -= 0.5f * (p[IX(n, i + 1, j)] - p[IX(n, i - 1, j)]) * n;
+                vY[IX(n, i, j)] -= 0.5f * (p[IX(n, i, j + 1)] - p[IX(n, i, j - 1)]) * n;
+            }
+        }
+        legacySetBounds(n, 1, vX);
+        legacySetBounds(n, 2, vY);
+    }
+
+    private static void legacyAdvect(int n, int b, float[] d, float[] d0, float[] vX, float[] vY, float dt) {
+        float dtX = dt * (n - 2);
+        float dtY = dt * (n - 2);
+        for (int j = 1; j < n - 1; j++) {
+            for (int i = 1; i < n - 1; i++) {
+                float x = i - dtX * vX[IX(n, i, j)];
+                float y = j - dtY * vY[IX(n, i, j)];
+                if (x < 0.5f) x = 0.5f;
+                if (x > n + 0.5f) x = n + 0.5f;
+                float i0 = (int) (x);
+                float i1 = i0 + 1.0f;
+                if (y < 0.5f) y = 0.5f;
+                if (y > n + 0.5f) y = n + 0.5f;
+                float j0 = (int) (y);
+                float j1 = j0 + 1.0f;
+                float s1 = x - i0;
+                float s0 = 1.0f - s1;
+                float t1 = y - j0;
+                float t0 = 1.0f - t1;
+                int i0i = (int) (i0);
+                int i1i = (int) (i1);
+                int j0i = (int) (j0);
+                int j1i = (int) (j1);
+                d[IX(n, i, j)] =
+                    s0 * (t0 * d0[IX(n, i0i, j0i)] + t1 * d0[IX(n, i0i, j1i)]) +
+                    s1 * (t0 * d0[IX(n, i1i, j0i)] + t1 * d0[IX(n, i1i, j1i)]);
+            }
+        }
+        legacySetBounds(n, b, d);
+    }
+
+}
@@ -0,0 +1,111 @@
+package fluidsimulation.gridbased;
+
+import fluidsimulation.SimulationConfig;
+import util.QuadTree;
+import util.QuadTree.QuadProps;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+// Allocation and time per call of the QuadtreeEulerian linearSolve and project sweeps, gathering neighbor values through
+// the previous findNeighborProps API (new int[] and float[4][k] per leaf) against the stencil sums of QuadTree
+// the legacy gathering is kept here only as the baseline, also reports the allocation of a whole update()
+// run with: java fluidsimulation.gridbased.QuadtreeAllocationBenchmark [size] [calls]
+public class QuadtreeAllocationBenchmark {
+
+    private static final int ITERATIONS = 10;
+
+    private interface Kernel {
+        void run();
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int calls = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        QuadtreeEulerian simulation = new QuadtreeEulerian(new SimulationConfig().size(size).particles(size * size).seed(42));
+        Random rand = new Random(42);
+        for (int k = 0; k < 16; k++) simulation.addFluid(rand.nextInt(512), rand.nextInt(512));
+        for (int k = 0; k < 20; k++) simulation.update(); // let the tree coarsen to a typical state
+        QuadTree tree = simulation.tree();
+        System.out.println("size " + size + ", " + tree.leafCount + " leaves");
+
+        int d = QuadProps.d.value, d0 = QuadProps.d0.value;
+        int vX = QuadProps.Vx.value, vY = QuadProps.Vy.value, p = QuadProps.Vx0.value, div = QuadProps.Vy0.value;
+        float a = 0.5f * 0.00001f * size * size;
+
+        System.out.println("kernel\tgather\tbytes/call\tms/call");
+        report("linearSolve", "legacy", calls, () -> legacyLinearSolve(simulation, 0, d, d0, a, 1 + 4 * a));
+        report("linearSolve", "stencil", calls, () -> simulation.linearSolve(0, d, d0, a, 1 + 4 * a));
+        report("project", "legacy", calls, () -> legacyProject(simulation, vX, vY, p, div));
+        report("project", "stencil", calls, () -> simulation.project(vX, vY, p, div));
+        report("update", "stencil", calls, simulation::update);
+    }
+
+    private static void report(String kernel, String gather, int calls, Kernel k) {
+        for (int i = 0; i < calls; i++) k.run(); // warm up
+
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < calls; i++) k.run();
+        long time = System.nanoTime() - start;
+        bytes = allocatedBytes() - bytes;
+        System.out.printf("%s\t%s\t%d\t%.3f%n", kernel, gather, bytes / calls, time / 1e6 / calls);
+    }
+
+    private static float[][] findNeighborProps(QuadTree tree, int k, int[] propsIdx) {
+        float[][] result = new float[QuadTree.DIRECTIONS][propsIdx.length];
+        for (int dir = 0; dir < QuadTree.DIRECTIONS; dir++) {
+            for (int e = tree.nbrStart[k * QuadTree.DIRECTIONS + dir]; e < tree.nbrStart[k * QuadTree.DIRECTIONS + dir + 1]; e++) {
+                for (int j = 0; j < propsIdx.length; j++) {
+                    result[dir][j] += tree.nbrWeight[e] * tree.props[propsIdx[j]][tree.nbr[e]];
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void legacyLinearSolve(QuadtreeEulerian simulation, int b, int xIdx, int x0Idx, float a, float c) {
+        QuadTree tree = simulation.tree();
+        float cRecip = 1.0f / c;
+        for (int k = 0; k < ITERATIONS; k++) {
+            for (int l = 0; l < tree.leafCount; l++) {
+                int q = tree.leaves[l];
+                float[][] neighborProps = findNeighborProps(tree, l, new int[] {xIdx});
+                float sum = 0f;
+                for (float[] props : neighborProps) sum += props[0];
+                tree.props[xIdx][q] = (tree.props[x0Idx][q] + a * sum) * cRecip;
+            }
+            simulation.setBounds(b, xIdx);
+        }
+    }
+
+    private static void legacyProject(QuadtreeEulerian simulation, int vXIdx, int vYIdx, int pIdx, int divIdx) {
+        QuadTree tree = simulation.tree();
+        int n = tree.N;
+        for (int l = 0; l < tree.leafCount; l++) {
+            int q = tree.leaves[l];
+            float[][] neighborProps = findNeighborProps(tree, l, new int[] {vXIdx, vYIdx});
+            tree.props[divIdx][q] = -0.5f * (neighborProps[3][0] - neighborProps[2][0] + neighborProps[1][1] - neighborProps[0][1]) / n;
+            tree.props[pIdx][q] = 0;
+        }
+        simulation.setBounds(0, divIdx);
+        simulation.setBounds(0, pIdx);
+
+        legacyLinearSolve(simulation, 0, pIdx, divIdx, 1, 4);
+
+        for (int l = 0; l < tree.leafCount; l++) {
+            int q = tree.leaves[l];
+            float[][] neighborProps = findNeighborProps(tree, l, new int[] {pIdx});
+            tree.props[vXIdx][q] -= 0.5f * (neighborProps[3][0] - neighborProps[2][0]) * n;
+            tree.props[vYIdx][q] -= 0.5f * (neighborProps[1][0] - neighborProps[0][0]) * n;
+        }
+        simulation.setBounds(1, vXIdx);
+        simulation.setBounds(2, vYIdx);
+    }
+
+}
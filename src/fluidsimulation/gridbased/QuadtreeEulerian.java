@@ -1,139 +1,312 @@
 package fluidsimulation.gridbased;
 
-import java.util.Random;
+import java.io.IOException;
 import java.awt.Color;
 import java.awt.Graphics;
 
+import fluidsimulation.FieldFrame;
 import fluidsimulation.FluidSimulation;
-import util.Quad;
-import util.Quad.*;
-import game.Main;
+import fluidsimulation.Metrics;
+import fluidsimulation.SimulationConfig;
+import fluidsimulation.gridbased.refinement.RefinementPolicy;
+import fluidsimulation.gridbased.refinement.RefinementStats;
+import util.Checkpoint;
+import util.ColorTable;
+import util.ParallelFor;
+import util.PixelRaster;
+import util.StateRandom;
+import util.QuadTree;
+import util.QuadTree.QuadProps;
 
 public class QuadtreeEulerian extends FluidSimulation {
 
-    private static int N = 16; // N for size
+    private int N; // N for size
 
     private static final int ITERATIONS = 10;
     private static final float DT = 0.5f;
     private static final float DIFF = 0.00001f;
     private static final float VISC = 0.00001f;
 
-    private static Quad tree;
-
-    private static int CELL_WIDTH = Main.WIN_WIDTH / (N + 2);
-    private static int CELL_HEIGHT = Main.WIN_HEIGHT / (N + 2);
-    private static int CELL_OFFSET_X = CELL_WIDTH;
-    private static int CELL_OFFSET_Y = CELL_HEIGHT;
-
-    private Random rand;
-
-    private void fillRandom(Quad q) {
-        q.refine();
-        if (q.isLeaf) {
-            q.props[QuadProps.d.value] = rand.nextFloat() * 100f;
-            q.props[QuadProps.Vx.value] = (rand.nextFloat() - 0.5f) * 2f * 10f;
-            q.props[QuadProps.Vy.value] = (rand.nextFloat() - 0.5f) * 2f * 10f;
+    private QuadTree tree;
+    private RefinementPolicy refinement;
+
+    // leaf sweeps are split into Morton ranges of the leaf list, in parallel mode the linear solve is Jacobi instead of
+    // in-place Gauss-Seidel so that the result does not depend on the thread count
+    private ParallelFor parallel;
+    private boolean jacobi;
+    private float[] jacobiScratch = new float[0];
+
+    // arguments of the running leaf sweep, the range bodies are built once and read them from here,
+    // a capturing lambda per call would allocate on every sweep of every solve
+    private float[] sweepX, sweepXOld, sweepX0, sweepVX, sweepVY, sweepP, sweepDiv;
+    private float sweepA, sweepC, sweepDt;
+    private final ParallelFor.Range relaxRange = (from, to) -> relax(sweepX, sweepXOld, sweepX0, sweepA, sweepC, from, to);
+    private final ParallelFor.Range divergenceRange = (from, to) -> divergence(sweepVX, sweepVY, sweepP, sweepDiv, from, to);
+    private final ParallelFor.Range gradientRange = (from, to) -> subtractGradient(sweepVX, sweepVY, sweepP, from, to);
+    private final ParallelFor.Range advectRange = (from, to) -> advectLeaves(sweepX, sweepX0, sweepVX, sweepVY, sweepDt, from, to);
+
+    private final Metrics.Phase coarsenPhase = metrics.phase("coarsen");
+    private final Metrics.Phase refinePhase = metrics.phase("refine");
+    private final Metrics.Phase diffusePhase = metrics.phase("diffuse");
+    private final Metrics.Phase projectPhase = metrics.phase("project");
+    private final Metrics.Phase advectPhase = metrics.phase("advect");
+    private final Metrics.Gauge leavesGauge = metrics.gauge("leaves");
+    private final Metrics.Gauge refinedGauge = metrics.gauge("refined");
+    private final Metrics.Gauge coarsenedGauge = metrics.gauge("coarsened");
+    private final Metrics.Gauge deferredGauge = metrics.gauge("deferred");
+
+    // hue and brightness both follow the density up to 255, past that only the hue cycles, so [0, 510) covers every color
+    private static final ColorTable COLORS = new ColorTable(510f, 8192,
+            dens -> Color.HSBtoRGB(((dens + 50f) % 255) / 255f, 0.8f, dens > 255f ? 1.0f : (dens / 255f)));
+    private static final int OUTLINE = Color.RED.getRGB() & 0xffffff;
+
+    private int CELL_WIDTH;
+    private int CELL_HEIGHT;
+    private int CELL_OFFSET_X;
+    private int CELL_OFFSET_Y;
+
+    private StateRandom rand;
+
+    private void fillRandom(int n) {
+        tree.refine(n);
+        if (tree.isLeaf(n)) {
+            tree.props[QuadProps.d.value][n] = rand.nextFloat() * 100f;
+            tree.props[QuadProps.Vx.value][n] = (rand.nextFloat() - 0.5f) * 2f * 10f;
+            tree.props[QuadProps.Vy.value][n] = (rand.nextFloat() - 0.5f) * 2f * 10f;
         } else {
-            for (Quad child : q.children) {
-                fillRandom(child);
+            for (int c = tree.child[n]; c < tree.child[n] + 4; c++) {
+                fillRandom(c);
             }
         }
     }
 
     @Override
     protected void init(int sqrtParticlesAmount, int particlesAmount) {
-        QuadtreeEulerian.N = sqrtParticlesAmount;
-        QuadtreeEulerian.CELL_WIDTH = Main.WIN_WIDTH / (QuadtreeEulerian.N + 2);
-        QuadtreeEulerian.CELL_HEIGHT = Main.WIN_HEIGHT / (QuadtreeEulerian.N + 2);
-        QuadtreeEulerian.CELL_OFFSET_X = QuadtreeEulerian.CELL_WIDTH;
-        QuadtreeEulerian.CELL_OFFSET_Y = QuadtreeEulerian.CELL_HEIGHT;
-
-        tree = new Quad(null, 0, 0, N, N);
-        Quad.N = N;
-        Quad.border = new Quad[4 * N + 4];
-        for (int i = 0; i < N; i++) { // N
-            Quad.border[i] = new Quad(null, i, -1, i + 1, 0);
-        }
-        for (int i = 0; i < N; i++) { // S
-            Quad.border[i + N] = new Quad(null, i, N, i + 1, N + 1);
-        }
-        for (int i = 0; i < N; i++) { // W
-            Quad.border[i + 2 * N] = new Quad(null, -1, i, 0, i + 1);
-        }
-        for (int i = 0; i < N; i++) { // E
-            Quad.border[i + 3 * N] = new Quad(null, N, i, N + 1, i + 1);
-        }
-        Quad.border[4 * N] = new Quad(null, -1, -1, 0, 0); // NW
-        Quad.border[4 * N + 1] = new Quad(null, N, -1, N + 1, 0); // NE
-        Quad.border[4 * N + 2] = new Quad(null, -1, N, 0, N + 1); // SW
-        Quad.border[4 * N + 3] = new Quad(null, N, N, N + 1, N + 1); // SE
+        this.N = sqrtParticlesAmount;
+        this.CELL_WIDTH = config.width / (N + 2);
+        this.CELL_HEIGHT = config.height / (N + 2);
+        this.CELL_OFFSET_X = CELL_WIDTH;
+        this.CELL_OFFSET_Y = CELL_HEIGHT;
 
-        rand = new Random();
-        fillRandom(tree);
+        tree = new QuadTree(N);
+        refinement = RefinementPolicy.density();
+
+        rand = createRandom();
+        if (config.fill) fillRandom(tree.root);
+    }
+
+    // config.threads > 1 -> parallel Jacobi sweeps, otherwise sequential Gauss-Seidel
+    public QuadtreeEulerian(SimulationConfig config) {
+        super(config);
+        this.parallel = new ParallelFor(config.threads);
+        this.jacobi = config.threads > 1;
+        init(config.size, config.particlesAmount());
     }
 
     public QuadtreeEulerian(int sqrtParticlesAmount, int particlesAmount) {
-        init(sqrtParticlesAmount, particlesAmount);
+        this(new SimulationConfig().size(sqrtParticlesAmount).particles(particlesAmount));
+    }
+
+    public QuadtreeEulerian(int sqrtParticlesAmount, int particlesAmount, int threads) {
+        this(new SimulationConfig().size(sqrtParticlesAmount).particles(particlesAmount).threads(threads));
+    }
+
+    @Override
+    public void dispose() {
+        parallel.shutdown();
     }
 
     @Override
-    public void update() {
+    protected void step() {
+        long lap = metrics.now();
+
         // coarsening TODO - uncomment
-        coarsenTree(tree);
+        coarsenPass();
+        lap = coarsenPhase.lap(lap);
 
         // neighbor finding and refining
-        forAll(tree, (Quad q) -> q.findNeighborsAndRefine(true));
+        refinePass();
+        lap = refinePhase.lap(lap);
 
         // velocity step
         diffuse(1, QuadProps.Vx0.value, QuadProps.Vx.value, VISC, DT);
         diffuse(2, QuadProps.Vy0.value, QuadProps.Vy.value, VISC, DT);
+        lap = diffusePhase.lap(lap);
 
         project(QuadProps.Vx0.value, QuadProps.Vy0.value, QuadProps.Vx.value, QuadProps.Vy.value);
+        lap = projectPhase.lap(lap);
 
         advect(1, QuadProps.Vx.value, QuadProps.Vx0.value, QuadProps.Vx0.value, QuadProps.Vy0.value, DT);
         advect(2, QuadProps.Vy.value, QuadProps.Vy0.value, QuadProps.Vx0.value, QuadProps.Vy0.value, DT);
+        lap = advectPhase.lap(lap);
 
         project(QuadProps.Vx.value, QuadProps.Vy.value, QuadProps.Vx0.value, QuadProps.Vy0.value);
+        lap = projectPhase.lap(lap);
 
         // density step
         diffuse(0, QuadProps.d0.value, QuadProps.d.value, DIFF, DT);
+        lap = diffusePhase.lap(lap);
         advect(0, QuadProps.d.value, QuadProps.d0.value, QuadProps.Vx.value, QuadProps.Vy.value, DT);
+        advectPhase.lap(lap);
+
+        RefinementStats stats = refinement.stats();
+        leavesGauge.set(tree.leafCount);
+        refinedGauge.set(stats.refined);
+        coarsenedGauge.set(stats.coarsened);
+        deferredGauge.set(stats.deferred);
+    }
+
+    // overrides the solver picked from config.threads, e.g. Jacobi on one thread as the baseline of a scaling run
+    public void useJacobiSweeps(boolean jacobi) {
+        this.jacobi = jacobi;
+    }
+
+    // replaces the density policy set up by the constructor
+    public void useRefinementPolicy(RefinementPolicy policy) {
+        this.refinement = policy;
+    }
+
+    // finite volume stencils that account for leaf and face sizes instead of treating every leaf as a unit cell,
+    // best combined with a balanced refinement policy (RefinementPolicy.balanced)
+    public void useFaceWeightedStencils(boolean faceWeighted) {
+        tree.setFaceWeighted(faceWeighted);
+    }
+
+    // leaf count, depth histogram and refine / coarsen counts of the last frame
+    public RefinementStats getRefinementStats() {
+        return refinement.stats();
+    }
+
+    // neighbor cache counters of the tree, cumulative since init
+    public long getAdjacencyRelinks() {
+        return tree.relinks;
+    }
+
+    public long getRecomputedLeaves() {
+        return tree.recomputedLeaves;
+    }
+
+    public long getReusedLeaves() {
+        return tree.reusedLeaves;
     }
 
     @Override
     public void addFluid(int mouseX, int mouseY) {
-        int i = (mouseX - CELL_OFFSET_X) / QuadtreeEulerian.CELL_WIDTH;
-        i = clamp(i, 0, QuadtreeEulerian.N);
-        int j = (mouseY - CELL_OFFSET_Y) / QuadtreeEulerian.CELL_HEIGHT;
-        j = clamp(j, 0, QuadtreeEulerian.N);
+        int i = (mouseX - CELL_OFFSET_X) / CELL_WIDTH;
+        i = clamp(i, 0, N);
+        int j = (mouseY - CELL_OFFSET_Y) / CELL_HEIGHT;
+        j = clamp(j, 0, N);
+
+        int q = tree.search(i, j);
+        tree.props[QuadProps.d.value][q] = 250f; //rand.nextFloat() * 500f;
+        tree.props[QuadProps.Vx.value][q] = (rand.nextFloat() - 0.5f) * 2f * 10f;
+        tree.props[QuadProps.Vy.value][q] = (rand.nextFloat() - 0.5f) * 2f * 10f;
+    }
 
-        Quad q = tree.search(i, j);
-        q.props[QuadProps.d.value] = 250f; //rand.nextFloat() * 500f;
-        q.props[QuadProps.Vx.value] = (rand.nextFloat() - 0.5f) * 2f * 10f;
-        q.props[QuadProps.Vy.value] = (rand.nextFloat() - 0.5f) * 2f * 10f;
+    @Override
+    public void addFluid(int[] mouseX, int[] mouseY, int count) {
+        float[] d = tree.props[QuadProps.d.value];
+        float[] vX = tree.props[QuadProps.Vx.value];
+        float[] vY = tree.props[QuadProps.Vy.value];
+        for (int k = 0; k < count; k++) {
+            int i = clamp((mouseX[k] - CELL_OFFSET_X) / CELL_WIDTH, 0, N - 1);
+            int j = clamp((mouseY[k] - CELL_OFFSET_Y) / CELL_HEIGHT, 0, N - 1);
+            int q = tree.leafMap[i + j * N];
+            d[q] = 250f;
+            vX[q] = (rand.nextFloat() - 0.5f) * 2f * 10f;
+            vY[q] = (rand.nextFloat() - 0.5f) * 2f * 10f;
+        }
     }
 
-    private void renderQuad(Graphics g, Quad q) {
-        if (q.isLeaf) {
-            float dens = q.props[QuadProps.d.value];
-            if (dens > 0f) {
-                Color color = new Color(Color.HSBtoRGB(((dens + 50f) % 255) / 255f, 0.8f, dens > 255f ? 1.0f : (dens / 255f)));
-                g.setColor(color);
-                g.fillRect(q.iStart * CELL_WIDTH + CELL_OFFSET_X, q.jStart * CELL_HEIGHT + CELL_OFFSET_Y,
-                        (q.iEnd - q.iStart) * CELL_WIDTH, (q.jEnd - q.jStart) * CELL_HEIGHT);
-
-                g.setColor(Color.RED);
-                g.drawRect(q.iStart * CELL_WIDTH + CELL_OFFSET_X, q.jStart * CELL_HEIGHT + CELL_OFFSET_Y,
-                        (q.iEnd - q.iStart) * CELL_WIDTH, (q.jEnd - q.jStart) * CELL_HEIGHT);
-            }
+    // leaf values sampled on the N x N cell grid, the leaf map is already in screen order
+    @Override
+    public void exportFields(FieldFrame frame) {
+        int[] leafMap = tree.leafMap;
+        float[] density = frame.field("density", N, N);
+        float[] vx = frame.field("vx", N, N);
+        float[] vy = frame.field("vy", N, N);
+        float[] d = tree.props[QuadProps.d.value];
+        float[] vX = tree.props[QuadProps.Vx.value];
+        float[] vY = tree.props[QuadProps.Vy.value];
+        for (int c = 0; c < N * N; c++) {
+            int q = leafMap[c];
+            density[c] = d[q];
+            vx[c] = vX[q];
+            vy[c] = vY[q];
         }
     }
 
+    // the refinement policy is code rather than state, a restored engine keeps the one it was built or configured with
     @Override
-    public void render(Graphics g) {
-        forAll(tree, (Quad q) -> renderQuad(g, q));
-        for (int i = 0; i < Quad.border.length; i++) {
-            renderQuad(g, Quad.border[i]);
+    protected void writeState(Checkpoint.Writer out) throws IOException {
+        tree.write(out);
+        out.putRandom(rand);
+    }
+
+    @Override
+    protected void readState(Checkpoint.Reader in) throws IOException {
+        tree.read(in);
+        rand = in.getRandom();
+    }
+
+    @Override
+    protected Snapshot createSnapshot() {
+        return new Frame();
+    }
+
+    // pixel rect and density of every quad that gets drawn, leaves first, then the border like the live tree
+    private class Frame extends Snapshot {
+        private int count;
+        private int[] rects = new int[0]; // x, y, width, height per quad
+        private float[] density = new float[0];
+        private final PixelRaster raster = new PixelRaster(config.width, config.height);
+
+        @Override
+        protected void capture() {
+            int capacity = tree.leafCount + tree.borderCount;
+            if (density.length < capacity) {
+                rects = new int[capacity * 4];
+                density = new float[capacity];
+            }
+            count = 0;
+            for (int k = 0; k < tree.leafCount; k++) {
+                captureQuad(tree.leaves[k]);
+            }
+            for (int i = 0; i < tree.borderCount; i++) {
+                captureQuad(i);
+            }
+        }
+
+        private void captureQuad(int q) {
+            float dens = tree.props[QuadProps.d.value][q];
+            if (dens > 0f) {
+                rects[count * 4] = tree.iStart[q] * CELL_WIDTH + CELL_OFFSET_X;
+                rects[count * 4 + 1] = tree.jStart[q] * CELL_HEIGHT + CELL_OFFSET_Y;
+                rects[count * 4 + 2] = (tree.iEnd[q] - tree.iStart[q]) * CELL_WIDTH;
+                rects[count * 4 + 3] = (tree.jEnd[q] - tree.jStart[q]) * CELL_HEIGHT;
+                density[count++] = dens;
+            }
+        }
+
+        @Override
+        public void render(Graphics g) {
+            raster.draw(this::drawRows);
+            raster.blit(g);
+        }
+
+        // every band walks the quads in drawing order, so outlines overlap their neighbours exactly as before
+        private void drawRows(int yFrom, int yTo) {
+            for (int k = 0; k < count; k++) {
+                int x = rects[k * 4];
+                int y = rects[k * 4 + 1];
+                int width = rects[k * 4 + 2];
+                int height = rects[k * 4 + 3];
+                if (y > yTo || y + height < yFrom) continue;
+
+                float dens = density[k];
+                raster.fillRect(x, y, width, height, COLORS.rgb(dens > 255f ? 255f + (dens - 255f) % 255f : dens), yFrom, yTo);
+                raster.drawRect(x, y, width, height, OUTLINE, yFrom, yTo);
+            }
         }
     }
 
@@ -147,114 +320,164 @@ public class QuadtreeEulerian extends FluidSimulation {
         return x;
     }
 
-    private static void coarsenTree(Quad q) {
-        if (q.isLeaf) return;
+    // phases of update(), package-private for QuadtreeKernelBenchmark
+    void coarsenPass() {
+        refinement.coarsen(tree);
+    }
 
-        boolean canCoarsen = true;
-        for (Quad child : q.children) {
-            if (!child.isLeaf) {
-                coarsenTree(child);
-                canCoarsen = false;
-            }
-        }
-        if (canCoarsen) q.checkAndCoarsen();
+    void refinePass() {
+        refinement.refine(tree);
     }
 
-    private interface CallableLeaf {
-        void f(Quad q);
+    // hook for AdjacencyCheck and QuadtreeAllocationBenchmark
+    QuadTree tree() {
+        return tree;
     }
 
-    private static void forAll(Quad q, CallableLeaf leafInterface) {
-        if (q.isLeaf) {
-            leafInterface.f(q);
-        } else {
-            for(Quad child : q.children) {
-                forAll(child, leafInterface);
-            }
+    // hook for QuadtreeScalingBenchmark, to check that every thread count ends in the same state
+    long checksum() {
+        long hash = tree.leafCount;
+        for (int l = 0; l < tree.leafCount; l++) {
+            int q = tree.leaves[l];
+            hash = hash * 31 + Float.floatToIntBits(tree.props[QuadProps.d.value][q]);
+            hash = hash * 31 + Float.floatToIntBits(tree.props[QuadProps.Vx.value][q]);
+            hash = hash * 31 + Float.floatToIntBits(tree.props[QuadProps.Vy.value][q]);
         }
+        return hash;
     }
 
-    private static void setBounds(int b, int xIdx) {
+    void setBounds(int b, int xIdx) {
+        float[] x = tree.props[xIdx];
+        int[] owner = tree.owner;
+
         // edge borders
-        if (b == 2) {
-            for (int i = 0; i < 2 * N; i++) {
-                Quad.border[i].props[xIdx] = -Quad.border[i].parent.props[xIdx];
-            }
-            for (int i = 2 * N; i < 4 * N; i++) {
-                Quad.border[i].props[xIdx] = Quad.border[i].parent.props[xIdx];
-            }
-        } else if (b == 1) {
-            for (int i = 0; i < 2 * N; i++) {
-                Quad.border[i].props[xIdx] = Quad.border[i].parent.props[xIdx];
-            }
-            for (int i = 2 * N; i < 4 * N; i++) {
-                Quad.border[i].props[xIdx] = -Quad.border[i].parent.props[xIdx];
-            }
-        } else {
-            for (int i = 0; i < 2 * N; i++) {
-                Quad.border[i].props[xIdx] = Quad.border[i].parent.props[xIdx];
-            }
-            for (int i = 2 * N; i < 4 * N; i++) {
-                Quad.border[i].props[xIdx] = Quad.border[i].parent.props[xIdx];
-            }
+        float signNS = b == 2 ? -1 : 1;
+        float signWE = b == 1 ? -1 : 1;
+        for (int i = 0; i < 2 * N; i++) {
+            x[i] = signNS * x[owner[i]];
+        }
+        for (int i = 2 * N; i < 4 * N; i++) {
+            x[i] = signWE * x[owner[i]];
         }
 
         // corner borders
-        Quad.border[4 * N].props[xIdx] = 0.5f * (Quad.border[0].props[xIdx] + Quad.border[2 * N].props[xIdx]);
-        Quad.border[4 * N + 1].props[xIdx] = 0.5f * (Quad.border[N - 1].props[xIdx] + Quad.border[3 * N].props[xIdx]);
-        Quad.border[4 * N + 2].props[xIdx] = 0.5f * (Quad.border[N].props[xIdx] + Quad.border[3 * N - 1].props[xIdx]);
-        Quad.border[4 * N + 3].props[xIdx] = 0.5f * (Quad.border[2 * N - 1].props[xIdx] + Quad.border[4 * N - 1].props[xIdx]);
+        x[4 * N] = 0.5f * (x[0] + x[2 * N]);
+        x[4 * N + 1] = 0.5f * (x[N - 1] + x[3 * N]);
+        x[4 * N + 2] = 0.5f * (x[N] + x[3 * N - 1]);
+        x[4 * N + 3] = 0.5f * (x[2 * N - 1] + x[4 * N - 1]);
     }
 
-    private static void linearSolve(int b, int xIdx, int x0Idx, float a, float c) {
-        float cRecip = 1.0f / c;
+    void linearSolve(int b, int xIdx, int x0Idx, float a, float c) {
+        float[] x = tree.props[xIdx];
+        float[] x0 = tree.props[x0Idx];
         for (int k = 0; k < ITERATIONS; k++) {
-            forAll(tree, (Quad q) -> {
-                float[][] neighborProps = q.findNeighborProps(new int[] {xIdx});
-                float sum = 0f;
-                for (float[] props : neighborProps) sum += props[0];
-                q.props[xIdx] = (q.props[x0Idx] + a * sum) * cRecip;
-            });
+            if (jacobi) {
+                // neighbors are leaves or border nodes, the rest of the node pool is never read
+                if (jacobiScratch.length < x.length) jacobiScratch = new float[x.length];
+                System.arraycopy(x, 0, jacobiScratch, 0, tree.borderCount);
+                for (int l = 0; l < tree.leafCount; l++) {
+                    int q = tree.leaves[l];
+                    jacobiScratch[q] = x[q];
+                }
+                sweepX = x;
+                sweepXOld = jacobiScratch;
+                sweepX0 = x0;
+                sweepA = a;
+                sweepC = c;
+                parallel.run(0, tree.leafCount, relaxRange);
+            } else {
+                relax(x, x, x0, a, c, 0, tree.leafCount);
+            }
 
             setBounds(b, xIdx);
         }
     }
 
-    private static void diffuse(int b, int xIdx, int x0Idx, float diff, float dt) {
+    // one sweep over leaves [from, to), reading neighbors from xOld (x itself for Gauss-Seidel)
+    // c is the diagonal of a unit cell (center + 4a), face weighted stencils replace its 4a by a * lapDiag of the leaf
+    private void relax(float[] x, float[] xOld, float[] x0, float a, float c, int from, int to) {
+        if (tree.isFaceWeighted()) {
+            float center = c - 4 * a;
+            for (int l = from; l < to; l++) {
+                int q = tree.leaves[l];
+                x[q] = (x0[q] + a * tree.neighborSum(l, xOld)) / (center + a * tree.lapDiag[l]);
+            }
+        } else {
+            float cRecip = 1.0f / c;
+            for (int l = from; l < to; l++) {
+                int q = tree.leaves[l];
+                x[q] = (x0[q] + a * tree.neighborSum(l, xOld)) * cRecip;
+            }
+        }
+    }
+
+    private void diffuse(int b, int xIdx, int x0Idx, float diff, float dt) {
         float a = dt * diff * N * N;
         linearSolve(b, xIdx, x0Idx, a, 1 + 4 * a);
     }
 
-    private static void project(int vXIdx, int vYIdx, int pIdx, int divIdx) {
-        forAll(tree, (Quad q) -> {
-            float[][] neighborProps = q.findNeighborProps(new int[] {vXIdx, vYIdx});
-            q.props[divIdx] = -0.5f * (
-                    neighborProps[3][0] - // E
-                    neighborProps[2][0] + // W
-                    neighborProps[1][1] - // S
-                    neighborProps[0][1] // N
-                ) / N;
-            q.props[pIdx] = 0;
-        });
-        setBounds(0, divIdx);
-        setBounds(0, pIdx);
-
+    void project(int vXIdx, int vYIdx, int pIdx, int divIdx) {
+        divergence(vXIdx, vYIdx, pIdx, divIdx);
         linearSolve(0, pIdx, divIdx, 1, 4);
 
-        forAll(tree, (Quad q) -> {
-            float[][] neighborProps = q.findNeighborProps(new int[] {pIdx});
-            q.props[vXIdx] -= 0.5f * (neighborProps[3][0] - neighborProps[2][0]) * N;
-            q.props[vYIdx] -= 0.5f * (neighborProps[1][0] - neighborProps[0][0]) * N;
-        });
+        sweepVX = tree.props[vXIdx];
+        sweepVY = tree.props[vYIdx];
+        sweepP = tree.props[pIdx];
+        parallel.run(0, tree.leafCount, gradientRange);
         setBounds(1, vXIdx);
         setBounds(2, vYIdx);
     }
 
-    private static void advect(int b, int dIdx, int d0Idx, int vXIdx, int vYIdx, float dt) {
+    // right hand side of the pressure solve, p is reset to 0, package-private for QuadtreeStencilBenchmark
+    void divergence(int vXIdx, int vYIdx, int pIdx, int divIdx) {
+        sweepVX = tree.props[vXIdx];
+        sweepVY = tree.props[vYIdx];
+        sweepP = tree.props[pIdx];
+        sweepDiv = tree.props[divIdx];
+        parallel.run(0, tree.leafCount, divergenceRange);
+        setBounds(0, divIdx);
+        setBounds(0, pIdx);
+    }
+
+    private void divergence(float[] vX, float[] vY, float[] p, float[] div, int from, int to) {
+        for (int l = from; l < to; l++) {
+            int q = tree.leaves[l];
+            div[q] = -0.5f * (
+                    tree.neighborAverage(l, QuadTree.EAST, vX) -
+                    tree.neighborAverage(l, QuadTree.WEST, vX) +
+                    tree.neighborAverage(l, QuadTree.SOUTH, vY) -
+                    tree.neighborAverage(l, QuadTree.NORTH, vY)
+                ) / N;
+            p[q] = 0;
+        }
+    }
+
+    private void subtractGradient(float[] vX, float[] vY, float[] p, int from, int to) {
+        for (int l = from; l < to; l++) {
+            int q = tree.leaves[l];
+            vX[q] -= 0.5f * (tree.neighborAverage(l, QuadTree.EAST, p) - tree.neighborAverage(l, QuadTree.WEST, p)) * N;
+            vY[q] -= 0.5f * (tree.neighborAverage(l, QuadTree.SOUTH, p) - tree.neighborAverage(l, QuadTree.NORTH, p)) * N;
+        }
+    }
+
+    void advect(int b, int dIdx, int d0Idx, int vXIdx, int vYIdx, float dt) {
+        sweepX = tree.props[dIdx];
+        sweepX0 = tree.props[d0Idx];
+        sweepVX = tree.props[vXIdx];
+        sweepVY = tree.props[vYIdx];
+        sweepDt = dt;
+        parallel.run(0, tree.leafCount, advectRange);
+
+        setBounds(b, dIdx);
+    }
+
+    private void advectLeaves(float[] d, float[] d0, float[] vX, float[] vY, float dt, int from, int to) {
+        int[] leafMap = tree.leafMap;
         float dtX = dt * N;
         float dtY = dt * N;
 
-        forAll(tree, (Quad q) -> {
+        for (int l = from; l < to; l++) {
+            int q = tree.leaves[l];
             float x, y;
             float i0, i1, j0, j1;
             int i0i, i1i, j0i, j1i;
@@ -262,10 +485,10 @@ public class QuadtreeEulerian extends FluidSimulation {
 
             float avg = 0f;
 
-            for (int i = q.iStart; i < q.iEnd; i++) {
-                for (int j = q.jStart; j < q.jEnd; j++) {
-                    x = i - dtX * q.props[vXIdx];
-                    y = j - dtY * q.props[vYIdx];
+            for (int i = tree.iStart[q]; i < tree.iEnd[q]; i++) {
+                for (int j = tree.jStart[q]; j < tree.jEnd[q]; j++) {
+                    x = i - dtX * vX[q];
+                    y = j - dtY * vY[q];
 
                     if (x < 0.5f) x = 0.5f;
                     if (x > N + 0.5f) x = N + 0.5f;
@@ -281,22 +504,21 @@ public class QuadtreeEulerian extends FluidSimulation {
                     t1 = y - j0;
                     t0 = 1.0f - t1;
 
-                    i0i = (int) (i0);
-                    i1i = (int) (i1);
-                    j0i = (int) (j0);
-                    j1i = (int) (j1);
+                    // x and y are at least 0.5, so only the upper side can leave the grid, it samples the edge leaf
+                    i0i = Math.min((int) (i0), N - 1);
+                    i1i = Math.min((int) (i1), N - 1);
+                    j0i = Math.min((int) (j0), N - 1) * N;
+                    j1i = Math.min((int) (j1), N - 1) * N;
 
                     avg +=
-                            s0 * (t0 * tree.search(i0i, j0i).props[d0Idx] + t1 * tree.search(i0i, j1i).props[d0Idx]) +
-                            s1 * (t0 * tree.search(i1i, j0i).props[d0Idx] + t1 * tree.search(i1i, j1i).props[d0Idx]);
+                            s0 * (t0 * d0[leafMap[i0i + j0i]] + t1 * d0[leafMap[i0i + j1i]]) +
+                            s1 * (t0 * d0[leafMap[i1i + j0i]] + t1 * d0[leafMap[i1i + j1i]]);
                 }
             }
 
-            avg /= (q.iEnd - q.iStart) * (q.jEnd - q.jStart);
-            q.props[dIdx] = avg;
-        });
-
-        setBounds(b, dIdx);
+            avg /= (tree.iEnd[q] - tree.iStart[q]) * (tree.jEnd[q] - tree.jStart[q]);
+            d[q] = avg;
+        }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,29 @@
+package fluidsimulation.gridbased;
+
+import benchmark.Harness;
+import fluidsimulation.SimulationConfig;
+import util.QuadTree.QuadProps;
+
+import java.util.Map;
+
+// QuadtreeEulerian kernels for benchmark.KernelBenchmark, the tree starts fully refined with seeded random leaves
+// coarsen and refine change the topology, so they are measured on the tree as the previous op left it
+public class QuadtreeKernelBenchmark {
+
+    private static final float DT = 0.5f;
+
+    public static void run(Harness harness, int size) {
+        QuadtreeEulerian simulation = new QuadtreeEulerian(new SimulationConfig().size(size).particles(size * size).seed(harness.seed()));
+        Map<String, String> params = Harness.params("N", Integer.toString(size));
+
+        harness.measure("QuadtreeEulerian", "coarsen", params, simulation::coarsenPass);
+        harness.measure("QuadtreeEulerian", "refine", params, simulation::refinePass);
+        harness.measure("QuadtreeEulerian", "linearSolve", params,
+                () -> simulation.linearSolve(0, QuadProps.d0.value, QuadProps.d.value, 1f, 5f));
+        harness.measure("QuadtreeEulerian", "project", params,
+                () -> simulation.project(QuadProps.Vx.value, QuadProps.Vy.value, QuadProps.Vx0.value, QuadProps.Vy0.value));
+        harness.measure("QuadtreeEulerian", "advect", params,
+                () -> simulation.advect(0, QuadProps.d.value, QuadProps.d0.value, QuadProps.Vx.value, QuadProps.Vy.value, DT));
+    }
+
+}
@@ -0,0 +1,74 @@
+package fluidsimulation.gridbased;
+
+import fluidsimulation.SimulationConfig;
+
+import java.util.Random;
+
+// Thread scaling of the parallel QuadtreeEulerian leaf sweeps (Jacobi solve), from 1 thread up to the core count (doubling)
+// the sequential Gauss-Seidel mode is listed first for reference, it is a different solver so its checksum differs
+// also checks that every thread count reaches bit-identical leaves from the same seed
+// run with: java fluidsimulation.gridbased.QuadtreeScalingBenchmark [size] [steps] [maxThreads]
+public class QuadtreeScalingBenchmark {
+
+    private static final long SEED = 42;
+    private static final int INJECTIONS = 32;
+
+    private static long lastChecksum; // checksum of the instance timed by the last run()
+
+    private interface Factory {
+        QuadtreeEulerian create();
+    }
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 128;
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        System.out.println("QuadtreeEulerian, N = " + size + ", " + steps + " steps, " + Runtime.getRuntime().availableProcessors() + " cores");
+        System.out.println("mode\tthreads\tms/step\tspeedup\tchecksum");
+
+        double sequential = run(() -> new QuadtreeEulerian(new SimulationConfig().size(size).particles(size * size).seed(SEED)), steps);
+        System.out.printf("GS\t1\t%.3f\t1.00x\t%016x%n", sequential, lastChecksum);
+
+        long expected = 0;
+        boolean deterministic = true;
+        for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads)) {
+            int t = threads;
+            double msPerStep = run(() -> {
+                QuadtreeEulerian simulation = new QuadtreeEulerian(new SimulationConfig().size(size).particles(size * size).threads(t).seed(SEED));
+                simulation.useJacobiSweeps(true); // also at one thread, so every row runs the same solver
+                return simulation;
+            }, steps);
+            long checksum = lastChecksum;
+            if (threads == 1) expected = checksum;
+            deterministic &= checksum == expected;
+            System.out.printf("Jacobi\t%d\t%.3f\t%.2fx\t%016x%n", threads, msPerStep, sequential / msPerStep, checksum);
+            if (threads >= maxThreads) break;
+        }
+        System.out.println(deterministic ? "all thread counts match" : "MISMATCH between thread counts");
+        if (!deterministic) System.exit(1);
+    }
+
+    // warms up on one instance, then times a fresh one from the same seed
+    private static double run(Factory factory, int steps) {
+        QuadtreeEulerian simulation = create(factory);
+        for (int i = 0; i < steps / 4; i++) simulation.update();
+        simulation.dispose();
+
+        simulation = create(factory);
+        long start = System.nanoTime();
+        for (int i = 0; i < steps; i++) simulation.update();
+        double msPerStep = (System.nanoTime() - start) / 1e6 / steps;
+        lastChecksum = simulation.checksum();
+        simulation.dispose();
+        return msPerStep;
+    }
+
+    private static QuadtreeEulerian create(Factory factory) {
+        QuadtreeEulerian simulation = factory.create();
+        Random rand = new Random(SEED);
+        for (int k = 0; k < INJECTIONS; k++) simulation.addFluid(rand.nextInt(512), rand.nextInt(512));
+        return simulation;
+    }
+
+}
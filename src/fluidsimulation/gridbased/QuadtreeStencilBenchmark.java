@@ -0,0 +1,124 @@
+package fluidsimulation.gridbased;
+
+import fluidsimulation.SimulationConfig;
+import fluidsimulation.gridbased.refinement.RefinementPolicy;
+import fluidsimulation.gridbased.solver.Boundary;
+import fluidsimulation.gridbased.solver.GaussSeidelSolver;
+import util.QuadTree;
+import util.QuadTree.QuadProps;
+
+import java.util.Random;
+
+// Pressure solve of QuadtreeEulerian with averaged stencils on the default tree against face weighted stencils on a
+// 2:1 balanced tree, and the uniform Eulerian Gauss-Seidel solve of the same divergence sampled on all N x N cells
+// both trees are adapted by the same seeded run, then Gauss-Seidel runs until the area weighted relative residual
+// reaches TOLERANCE, the divergence has its (area weighted) mean removed so the Neumann problem is consistent
+// run with: java fluidsimulation.gridbased.QuadtreeStencilBenchmark [size] [steps]
+public class QuadtreeStencilBenchmark {
+
+    private static final long SEED = 42;
+    private static final int INJECTIONS = 4; // per step, keeps density fronts in the tree
+    private static final int MAX_ITERATIONS = 4000;
+    private static final float[] TOLERANCES = {1e-2f, 1e-3f};
+    private static final int BLOCK = 10; // QuadtreeEulerian.linearSolve runs this many iterations per call
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        System.out.println("N = " + size + ", tree adapted for " + steps + " steps");
+        System.out.println("stencil\tunknowns\ttolerance\titerations\tms\tresidual");
+        for (int mode = 0; mode < 2; mode++) {
+            boolean face = mode == 1;
+            for (float tolerance : TOLERANCES) {
+                QuadtreeEulerian simulation = prepare(size, steps, face);
+                QuadTree tree = simulation.tree();
+                int p = QuadProps.Vx0.value, div = QuadProps.Vy0.value;
+                simulation.divergence(QuadProps.Vx.value, QuadProps.Vy.value, p, div);
+                removeMean(simulation, div);
+
+                int iterations = 0;
+                float residual = residual(tree, p, div);
+                long start = System.nanoTime();
+                while (residual > tolerance && iterations < MAX_ITERATIONS) {
+                    simulation.linearSolve(0, p, div, 1, 4);
+                    iterations += BLOCK;
+                    residual = residual(tree, p, div);
+                }
+                double ms = (System.nanoTime() - start) / 1e6;
+                System.out.printf("%s\t%d\t%.0e\t%d\t%.3f\t%.3e%s%n", face ? "face weighted, balanced" : "averaged", tree.leafCount,
+                        tolerance, iterations, ms, residual, residual > tolerance ? " (did not reach tolerance)" : "");
+
+                if (face) uniform(tree, div, tolerance);
+            }
+        }
+    }
+
+    private static QuadtreeEulerian prepare(int size, int steps, boolean face) {
+        QuadtreeEulerian simulation = new QuadtreeEulerian(new SimulationConfig().size(size).particles(size * size).seed(SEED));
+        if (face) {
+            simulation.useRefinementPolicy(RefinementPolicy.density().balanced());
+            simulation.useFaceWeightedStencils(true);
+        }
+        Random rand = new Random(SEED);
+        for (int k = 0; k < steps; k++) {
+            for (int i = 0; i < INJECTIONS; i++) simulation.addFluid(rand.nextInt(512), rand.nextInt(512));
+            simulation.update();
+        }
+        return simulation;
+    }
+
+    private static float area(QuadTree tree, int q) {
+        return (tree.iEnd[q] - tree.iStart[q]) * (tree.jEnd[q] - tree.jStart[q]);
+    }
+
+    private static void removeMean(QuadtreeEulerian simulation, int divIdx) {
+        QuadTree tree = simulation.tree();
+        float[] div = tree.props[divIdx];
+        double sum = 0, area = 0;
+        for (int l = 0; l < tree.leafCount; l++) {
+            int q = tree.leaves[l];
+            sum += div[q] * area(tree, q);
+            area += area(tree, q);
+        }
+        float mean = (float) (sum / area);
+        for (int l = 0; l < tree.leafCount; l++) div[tree.leaves[l]] -= mean;
+        simulation.setBounds(0, divIdx);
+    }
+
+    // relative residual of the pressure equation, every leaf weighted by its area so it compares with a uniform grid
+    private static float residual(QuadTree tree, int pIdx, int divIdx) {
+        float[] p = tree.props[pIdx];
+        float[] div = tree.props[divIdx];
+        double sum = 0, norm = 0;
+        for (int l = 0; l < tree.leafCount; l++) {
+            int q = tree.leaves[l];
+            float diag = tree.isFaceWeighted() ? tree.lapDiag[l] : 4;
+            double r = div[q] + tree.neighborSum(l, p) - diag * p[q];
+            sum += r * r * area(tree, q);
+            norm += (double) div[q] * div[q] * area(tree, q);
+        }
+        return (float) Math.sqrt(sum / norm);
+    }
+
+    // the same divergence on every cell of a uniform (N + 2)^2 Eulerian grid, solved by Gauss-Seidel
+    private static void uniform(QuadTree tree, int divIdx, float tolerance) {
+        int n = tree.N + 2;
+        float[] div = new float[n * n];
+        for (int j = 0; j < tree.N; j++) {
+            for (int i = 0; i < tree.N; i++) {
+                div[(i + 1) + (j + 1) * n] = tree.props[divIdx][tree.leafMap[i + j * tree.N]];
+            }
+        }
+        Boundary.setBounds(0, div, n);
+
+        GaussSeidelSolver solver = new GaussSeidelSolver(MAX_ITERATIONS, tolerance);
+        float[] p = new float[n * n];
+        long start = System.nanoTime();
+        solver.solve(0, p, div, 1, 4, n);
+        double ms = (System.nanoTime() - start) / 1e6;
+        System.out.printf("uniform Eulerian\t%d\t%.0e\t%d\t%.3f\t%.3e%s%n", tree.N * tree.N, tolerance, solver.iterations(), ms,
+                solver.residual(), solver.residual() > tolerance ? " (did not reach tolerance)" : "");
+    }
+
+}
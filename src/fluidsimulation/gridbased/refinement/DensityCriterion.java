@@ -0,0 +1,38 @@
+package fluidsimulation.gridbased.refinement;
+
+import util.QuadTree;
+import util.QuadTree.QuadProps;
+
+// Density range over the neighbors of a leaf (refine) or over 4 siblings (coarsen)
+public class DensityCriterion extends RefinementCriterion {
+
+    public DensityCriterion(float refineThreshold, float coarsenThreshold) {
+        super(refineThreshold, coarsenThreshold);
+    }
+
+    @Override
+    public float refineMeasure(QuadTree tree, int k) {
+        float[] d = tree.props[QuadProps.d.value];
+        float minD = 1000000000;
+        float maxD = -1000000000;
+        for (int e = tree.nbrStart[k * QuadTree.DIRECTIONS], end = tree.nbrStart[(k + 1) * QuadTree.DIRECTIONS]; e < end; e++) {
+            minD = Math.min(minD, d[tree.nbr[e]]);
+            maxD = Math.max(maxD, d[tree.nbr[e]]);
+        }
+        return maxD - minD;
+    }
+
+    @Override
+    public float coarsenMeasure(QuadTree tree, int n) {
+        float[] d = tree.props[QuadProps.d.value];
+        int c = tree.child[n];
+        float minD = 1000000000;
+        float maxD = -1000000000;
+        for (int q = c; q < c + 4; q++) {
+            minD = Math.min(d[q], minD);
+            maxD = Math.max(d[q], maxD);
+        }
+        return maxD - minD;
+    }
+
+}
@@ -0,0 +1,26 @@
+package fluidsimulation.gridbased.refinement;
+
+import util.QuadTree;
+
+// One refinement indicator with hysteresis: a leaf is refined when its measure reaches refineThreshold and 4 sibling
+// leaves are merged when their measure is at most coarsenThreshold, anything in between keeps the current topology
+public abstract class RefinementCriterion {
+
+    public final float refineThreshold;
+    public final float coarsenThreshold;
+
+    protected RefinementCriterion(float refineThreshold, float coarsenThreshold) {
+        if (!(coarsenThreshold < refineThreshold)) {
+            throw new IllegalArgumentException("coarsen threshold " + coarsenThreshold + " must be below refine threshold " + refineThreshold);
+        }
+        this.refineThreshold = refineThreshold;
+        this.coarsenThreshold = coarsenThreshold;
+    }
+
+    // measure around tree.leaves[k], from the leaf and its cached neighbors
+    public abstract float refineMeasure(QuadTree tree, int k);
+
+    // measure over the 4 leaf children of node n
+    public abstract float coarsenMeasure(QuadTree tree, int n);
+
+}
@@ -0,0 +1,223 @@
+package fluidsimulation.gridbased.refinement;
+
+import util.QuadTree;
+
+import java.util.Arrays;
+
+// Decides which leaves of a QuadTree are refined and which siblings are merged each frame
+// a leaf is refined if any criterion asks for it, siblings are merged only if every criterion allows it
+// optional budgets: a hard leaf budget (refinement stops, and extra merging is forced, to stay under it) and a time budget
+// for the refine pass, under a budget the candidates with the highest measure / refineThreshold go first
+// optional 2:1 balance: neighboring leaves differ by at most one level, refinements ripple to coarser neighbors and
+// siblings are not merged next to finer leaves, balance refinements are not limited by the budgets
+// levels are tree depths, which match leaf sizes when N is a power of two
+public class RefinementPolicy {
+
+    private final RefinementCriterion[] criteria;
+    private int leafBudget = Integer.MAX_VALUE;
+    private long timeBudgetNanos = Long.MAX_VALUE;
+    private boolean balanced = false;
+
+    private int[] stack = new int[16]; // ripple scratch
+
+    private final RefinementStats stats = new RefinementStats();
+
+    // candidates as (priority bits << 32 | node), priorities are not negative so the longs sort like the priorities
+    private long[] candidates = new long[16];
+    private int candidateCount = 0;
+
+    public RefinementPolicy(RefinementCriterion... criteria) {
+        if (criteria.length == 0) throw new IllegalArgumentException("no refinement criteria");
+        this.criteria = criteria.clone();
+    }
+
+    // the original quadtree behavior: refine on neighbor density gaps of 40, merge siblings within 0.4
+    public static RefinementPolicy density() {
+        return new RefinementPolicy(new DensityCriterion(40f, 0.4f));
+    }
+
+    public RefinementPolicy leafBudget(int maxLeaves) {
+        this.leafBudget = maxLeaves;
+        return this;
+    }
+
+    public RefinementPolicy timeBudget(long nanos) {
+        this.timeBudgetNanos = nanos;
+        return this;
+    }
+
+    public RefinementPolicy balanced() {
+        this.balanced = true;
+        return this;
+    }
+
+    // filled by coarsen + refine, valid until the next coarsen
+    public RefinementStats stats() {
+        return stats;
+    }
+
+    // first half of a frame: merges siblings every criterion allows, then the least refined looking ones while over budget
+    public void coarsen(QuadTree tree) {
+        long start = System.nanoTime();
+        stats.reset();
+        tree.relink();
+
+        candidateCount = 0;
+        int leafCount = tree.leafCount;
+        for (int k = 0; k < tree.leafCount; k++) {
+            int n = tree.leaves[k];
+            int p = tree.parent[n];
+            if (p == QuadTree.NONE || n != tree.child[p] || !tree.canCoarsen(p)) continue; // visit each parent once, from its first child
+            if (balanced && hasFinerNeighbor(tree, p)) continue;
+
+            boolean merge = true;
+            float priority = 0f;
+            for (RefinementCriterion criterion : criteria) {
+                float measure = criterion.coarsenMeasure(tree, p);
+                merge &= measure <= criterion.coarsenThreshold;
+                priority = Math.max(priority, measure / criterion.refineThreshold);
+            }
+            if (merge) {
+                tree.coarsen(p);
+                leafCount -= 3;
+                stats.coarsened++;
+            } else {
+                addCandidate(priority, p);
+            }
+        }
+
+        if (leafCount > leafBudget) {
+            Arrays.sort(candidates, 0, candidateCount);
+            for (int c = 0; c < candidateCount && leafCount > leafBudget; c++) {
+                int p = (int) candidates[c];
+                if (balanced && hasFinerNeighbor(tree, p)) continue; // an earlier merge may have unbalanced it
+                tree.coarsen(p);
+                leafCount -= 3;
+                stats.coarsened++;
+                stats.forcedCoarsened++;
+            }
+        }
+        stats.nanos += System.nanoTime() - start;
+    }
+
+    // second half of a frame: refines leaves any criterion asks for (one level per frame) within the budgets, then relinks
+    public void refine(QuadTree tree) {
+        long start = System.nanoTime();
+        tree.relink();
+        if (balanced) {
+            while (enforceBalance(tree) > 0) tree.relink();
+        }
+
+        candidateCount = 0;
+        for (int k = 0; k < tree.leafCount; k++) {
+            int n = tree.leaves[k];
+            if (!tree.canRefine(n)) continue;
+
+            boolean split = false;
+            float priority = 0f;
+            for (RefinementCriterion criterion : criteria) {
+                float measure = criterion.refineMeasure(tree, k);
+                split |= measure >= criterion.refineThreshold;
+                priority = Math.max(priority, measure / criterion.refineThreshold);
+            }
+            if (split) addCandidate(priority, n);
+        }
+
+        int leafCount = tree.leafCount;
+        boolean budgeted = leafBudget != Integer.MAX_VALUE || timeBudgetNanos != Long.MAX_VALUE;
+        if (budgeted) Arrays.sort(candidates, 0, candidateCount);
+        for (int c = 0; c < candidateCount; c++) {
+            int next = budgeted ? candidateCount - 1 - c : c; // highest priority first, otherwise leaf order
+            if (leafCount + 3 > leafBudget || System.nanoTime() - start > timeBudgetNanos) {
+                stats.deferred = candidateCount - c;
+                break;
+            }
+            int n = (int) candidates[next];
+            if (!tree.isLeaf(n)) continue; // already split by a balance ripple
+            tree.refine(n);
+            leafCount += 3;
+            stats.refined++;
+            if (balanced) leafCount += 3 * ripple(tree, n);
+        }
+
+        tree.relink();
+        stats.leaves = tree.leafCount;
+        for (int k = 0; k < tree.leafCount; k++) {
+            int depth = Math.min(tree.depth[tree.leaves[k]], stats.depthHistogram.length - 1);
+            stats.depthHistogram[depth]++;
+            stats.maxDepth = Math.max(stats.maxDepth, depth);
+        }
+        stats.nanos += System.nanoTime() - start;
+    }
+
+    // refines every leaf with a neighbor more than one level finer (and what that ripples into), returns the count
+    private int enforceBalance(QuadTree tree) {
+        int refined = 0;
+        for (int k = 0; k < tree.leafCount; k++) {
+            int n = tree.leaves[k];
+            if (!tree.isLeaf(n) || !tree.canRefine(n)) continue;
+            for (int e = tree.nbrStart[k * QuadTree.DIRECTIONS], end = tree.nbrStart[(k + 1) * QuadTree.DIRECTIONS]; e < end; e++) {
+                int m = tree.nbr[e];
+                if (m >= tree.borderCount && tree.isLeaf(m) && tree.depth[m] > tree.depth[n] + 1) {
+                    tree.refine(n);
+                    stats.refined++;
+                    stats.balanceRefined++;
+                    refined += 1 + ripple(tree, n);
+                    break;
+                }
+            }
+        }
+        return refined;
+    }
+
+    // after n was refined: refines the leaves along its sides that are now 2 levels coarser than its children, and so on
+    // works on the leaf map, so it does not need the neighbor cache of leaves created in this frame
+    private int ripple(QuadTree tree, int n) {
+        int refined = 0;
+        int top = 0;
+        stack[top++] = n;
+        while (top > 0) {
+            int m = stack[--top];
+            int depth = tree.depth[m]; // children of m are at depth + 1, their neighbors must be at depth or finer
+            for (int side = 0; side < QuadTree.DIRECTIONS; side++) {
+                int length = side < 2 ? tree.iEnd[m] - tree.iStart[m] : tree.jEnd[m] - tree.jStart[m];
+                for (int t = 0; t < length; t++) {
+                    int i, j;
+                    if (side == QuadTree.NORTH) { i = tree.iStart[m] + t; j = tree.jStart[m] - 1; }
+                    else if (side == QuadTree.SOUTH) { i = tree.iStart[m] + t; j = tree.jEnd[m]; }
+                    else if (side == QuadTree.WEST) { i = tree.iStart[m] - 1; j = tree.jStart[m] + t; }
+                    else { i = tree.iEnd[m]; j = tree.jStart[m] + t; }
+                    if (i < 0 || j < 0 || i >= tree.N || j >= tree.N) break; // wall
+
+                    int leaf = tree.leafMap[i + j * tree.N];
+                    if (tree.depth[leaf] < depth && tree.refine(leaf)) {
+                        refined++;
+                        if (top == stack.length) stack = Arrays.copyOf(stack, top * 2);
+                        stack[top++] = leaf;
+                    }
+                }
+            }
+        }
+        stats.refined += refined;
+        stats.balanceRefined += refined;
+        return refined;
+    }
+
+    // true if a leaf next to one of the 4 leaf children of p is finer than the children, merging p would unbalance it
+    private static boolean hasFinerNeighbor(QuadTree tree, int p) {
+        for (int c = tree.child[p]; c < tree.child[p] + 4; c++) {
+            int k = tree.slot(c);
+            if (k == QuadTree.NONE) return true; // not linked yet, keep it
+            for (int e = tree.nbrStart[k * QuadTree.DIRECTIONS], end = tree.nbrStart[(k + 1) * QuadTree.DIRECTIONS]; e < end; e++) {
+                if (tree.depth[tree.nbr[e]] > tree.depth[c]) return true;
+            }
+        }
+        return false;
+    }
+
+    private void addCandidate(float priority, int node) {
+        if (candidateCount == candidates.length) candidates = Arrays.copyOf(candidates, candidateCount * 2);
+        candidates[candidateCount++] = ((long) Float.floatToIntBits(priority) << 32) | node;
+    }
+
+}
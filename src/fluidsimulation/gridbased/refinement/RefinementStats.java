@@ -0,0 +1,38 @@
+package fluidsimulation.gridbased.refinement;
+
+import java.util.Arrays;
+
+// What the refinement policy did in the last frame
+public class RefinementStats {
+
+    public int leaves;
+    public int refined;
+    public int coarsened;
+    public int deferred; // refine candidates left for a later frame by the leaf or time budget
+    public int forcedCoarsened; // merged only to get back under the leaf budget
+    public int balanceRefined; // refined to keep the tree 2:1 balanced, also counted in refined
+    public int maxDepth;
+    public final int[] depthHistogram = new int[32]; // leaves per depth, root is depth 0
+    public long nanos; // time spent in coarsen + refine
+
+    void reset() {
+        leaves = refined = coarsened = deferred = forcedCoarsened = balanceRefined = maxDepth = 0;
+        Arrays.fill(depthHistogram, 0);
+        nanos = 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("leaves ").append(leaves).append(", refined ").append(refined);
+        if (balanceRefined > 0) sb.append(" (").append(balanceRefined).append(" for balance)");
+        sb.append(", coarsened ").append(coarsened);
+        if (forcedCoarsened > 0) sb.append(" (").append(forcedCoarsened).append(" forced)");
+        if (deferred > 0) sb.append(", deferred ").append(deferred);
+        sb.append(", depths");
+        for (int depth = 0; depth <= maxDepth; depth++) sb.append(' ').append(depthHistogram[depth]);
+        sb.append(String.format(", %.3f ms", nanos / 1e6));
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,37 @@
+package fluidsimulation.gridbased.refinement;
+
+import util.QuadTree;
+import util.QuadTree.QuadProps;
+
+// Largest velocity component jump between a leaf and any neighbor (refine) or across 4 siblings (coarsen)
+public class VelocityGradientCriterion extends RefinementCriterion {
+
+    public VelocityGradientCriterion(float refineThreshold, float coarsenThreshold) {
+        super(refineThreshold, coarsenThreshold);
+    }
+
+    @Override
+    public float refineMeasure(QuadTree tree, int k) {
+        float[] vX = tree.props[QuadProps.Vx.value];
+        float[] vY = tree.props[QuadProps.Vy.value];
+        int q = tree.leaves[k];
+        float jump = 0f;
+        for (int e = tree.nbrStart[k * QuadTree.DIRECTIONS], end = tree.nbrStart[(k + 1) * QuadTree.DIRECTIONS]; e < end; e++) {
+            jump = Math.max(jump, Math.abs(vX[tree.nbr[e]] - vX[q]));
+            jump = Math.max(jump, Math.abs(vY[tree.nbr[e]] - vY[q]));
+        }
+        return jump;
+    }
+
+    @Override
+    public float coarsenMeasure(QuadTree tree, int n) {
+        return Math.max(range(tree.props[QuadProps.Vx.value], tree.child[n]), range(tree.props[QuadProps.Vy.value], tree.child[n]));
+    }
+
+    private static float range(float[] x, int c) {
+        float min = Math.min(Math.min(x[c], x[c + 1]), Math.min(x[c + 2], x[c + 3]));
+        float max = Math.max(Math.max(x[c], x[c + 1]), Math.max(x[c + 2], x[c + 3]));
+        return max - min;
+    }
+
+}
@@ -0,0 +1,33 @@
+package fluidsimulation.gridbased.refinement;
+
+import util.QuadTree;
+import util.QuadTree.QuadProps;
+
+// Circulation around a leaf, |dVy/dx - dVx/dy| times the leaf size, from the neighbor averages (refine)
+// or from the 4 siblings (coarsen), so it shrinks as the tree resolves a vortex
+public class VorticityCriterion extends RefinementCriterion {
+
+    public VorticityCriterion(float refineThreshold, float coarsenThreshold) {
+        super(refineThreshold, coarsenThreshold);
+    }
+
+    @Override
+    public float refineMeasure(QuadTree tree, int k) {
+        float[] vX = tree.props[QuadProps.Vx.value];
+        float[] vY = tree.props[QuadProps.Vy.value];
+        float dVy = tree.neighborAverage(k, QuadTree.EAST, vY) - tree.neighborAverage(k, QuadTree.WEST, vY);
+        float dVx = tree.neighborAverage(k, QuadTree.SOUTH, vX) - tree.neighborAverage(k, QuadTree.NORTH, vX);
+        return 0.5f * Math.abs(dVy - dVx);
+    }
+
+    @Override
+    public float coarsenMeasure(QuadTree tree, int n) {
+        float[] vX = tree.props[QuadProps.Vx.value];
+        float[] vY = tree.props[QuadProps.Vy.value];
+        int c = tree.child[n]; // NW, NE, SW, SE
+        float dVy = (vY[c + 1] + vY[c + 3]) - (vY[c] + vY[c + 2]);
+        float dVx = (vX[c + 2] + vX[c + 3]) - (vX[c] + vX[c + 1]);
+        return 0.5f * Math.abs(dVy - dVx);
+    }
+
+}
@@ -0,0 +1,39 @@
+package fluidsimulation.gridbased.solver;
+
+// Ghost cell handling for an n * n grid laid out as IX(i, j) = i + j * n, interior cells are [1, n - 2]
+public class Boundary {
+
+    // b = which array x is -> how to set bounding cells
+    public static void setBounds(int b, float[] x, int n) { // bound fluid into box, fluid bounces off walls with opposite velocities
+        int last = (n - 1) * n; // first index of row j = n - 1
+        float signJ = b == 2 ? -1f : 1f;
+        float signI = b == 1 ? -1f : 1f;
+
+        // setting 1 through n - 2, to only set edges and avoid corners
+        for (int i = 1; i < n - 1; i++) {
+            x[i] = signJ * x[i + n];
+            x[last + i] = signJ * x[last - n + i];
+        }
+        for (int j = 1; j < n - 1; j++) {
+            int row = j * n;
+            x[row] = signI * x[row + 1];
+            x[row + n - 1] = signI * x[row + n - 2];
+        }
+
+        // corner cells set to average of two edge cell neighbors
+        x[0] = 0.5f * (x[1] + x[n]);
+        x[last] = 0.5f * (x[last + 1] + x[last - n]);
+        x[n - 1] = 0.5f * (x[n - 2] + x[2 * n - 1]);
+        x[last + n - 1] = 0.5f * (x[last + n - 2] + x[last - 1]);
+    }
+
+    // sign a ghost cell takes relative to the interior cell it mirrors, on the i = 0 / n - 1 walls and the j = 0 / n - 1 walls
+    static float wallSignI(int b) {
+        return b == 1 ? -1f : 1f;
+    }
+
+    static float wallSignJ(int b) {
+        return b == 2 ? -1f : 1f;
+    }
+
+}
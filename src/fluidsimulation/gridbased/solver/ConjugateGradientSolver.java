@@ -0,0 +1,169 @@
+package fluidsimulation.gridbased.solver;
+
+import static fluidsimulation.gridbased.solver.Boundary.setBounds;
+import static fluidsimulation.gridbased.solver.Boundary.wallSignI;
+import static fluidsimulation.gridbased.solver.Boundary.wallSignJ;
+
+// Conjugate gradient on the interior unknowns, ghost cells are folded into the diagonal (a mirrored neighbor is the cell itself, times the wall sign)
+// the pressure equation (b = 0, c = 4a) is singular with constants as null space, so its right hand side is projected to zero mean first
+public class ConjugateGradientSolver extends LinearSolver {
+
+    protected int n;
+    protected float a;
+    protected float[] diag = new float[0];
+
+    // work vectors, ghost entries are never written and stay 0 so stencils need no bounds checks
+    private float[] xi = new float[0];
+    protected float[] r = new float[0];
+    protected float[] z = new float[0];
+    private float[] p = new float[0];
+    private float[] q = new float[0];
+
+    public ConjugateGradientSolver(int maxIterations, float tolerance) {
+        super(maxIterations, tolerance);
+    }
+
+    protected void resize(int n) {
+        if (xi.length != n * n) {
+            diag = new float[n * n];
+            xi = new float[n * n];
+            r = new float[n * n];
+            z = new float[n * n];
+            p = new float[n * n];
+            q = new float[n * n];
+        }
+        this.n = n;
+    }
+
+    private void computeDiagonal(int b, float a, float c) {
+        float sI = wallSignI(b);
+        float sJ = wallSignJ(b);
+        for (int j = 1; j < n - 1; j++) {
+            for (int i = 1; i < n - 1; i++) {
+                float ghosts = 0f;
+                if (i == 1) ghosts += sI;
+                if (i == n - 2) ghosts += sI;
+                if (j == 1) ghosts += sJ;
+                if (j == n - 2) ghosts += sJ;
+                diag[i + j * n] = c - a * ghosts;
+            }
+        }
+    }
+
+    // z = M^-1 r, identity for plain CG
+    protected void precondition(float[] r, float[] z) {
+        System.arraycopy(r, 0, z, 0, n * n);
+    }
+
+    // called once the operator of this solve is known
+    protected void prepare(int b, float a, float c) {}
+
+    private void apply(float[] v, float[] out) {
+        for (int j = 1; j < n - 1; j++) {
+            for (int i = 1; i < n - 1; i++) {
+                int idx = i + j * n;
+                out[idx] = diag[idx] * v[idx] - a * (v[idx + 1] + v[idx - 1] + v[idx + n] + v[idx - n]);
+            }
+        }
+    }
+
+    private double dot(float[] u, float[] v) {
+        double sum = 0;
+        for (int j = 1; j < n - 1; j++) {
+            for (int i = 1; i < n - 1; i++) {
+                int idx = i + j * n;
+                sum += (double) u[idx] * v[idx];
+            }
+        }
+        return sum;
+    }
+
+    private void removeMean(float[] v) {
+        double sum = 0;
+        for (int j = 1; j < n - 1; j++) {
+            for (int i = 1; i < n - 1; i++) {
+                sum += v[i + j * n];
+            }
+        }
+        float mean = (float) (sum / ((n - 2) * (n - 2)));
+        for (int j = 1; j < n - 1; j++) {
+            for (int i = 1; i < n - 1; i++) {
+                v[i + j * n] -= mean;
+            }
+        }
+    }
+
+    @Override
+    public void solve(int b, float[] x, float[] x0, float a, float c, int n) {
+        resize(n);
+        this.a = a;
+        computeDiagonal(b, a, c);
+        prepare(b, a, c);
+        boolean singular = b == 0 && Math.abs(c - 4 * a) <= 1e-6f * Math.abs(c);
+
+        for (int j = 1; j < n - 1; j++) {
+            for (int i = 1; i < n - 1; i++) {
+                int idx = i + j * n;
+                xi[idx] = x[idx];
+            }
+        }
+
+        // r = x0 - A x
+        apply(xi, q);
+        for (int j = 1; j < n - 1; j++) {
+            for (int i = 1; i < n - 1; i++) {
+                int idx = i + j * n;
+                r[idx] = x0[idx] - q[idx];
+            }
+        }
+        if (singular) removeMean(r);
+
+        double norm0 = Math.sqrt(dot(x0, x0));
+        if (norm0 == 0) norm0 = 1;
+
+        precondition(r, z);
+        if (singular) removeMean(z);
+        System.arraycopy(z, 0, p, 0, n * n);
+        double rz = dot(r, z);
+
+        iterations = 0;
+        residual = (float) (Math.sqrt(dot(r, r)) / norm0);
+        while (iterations < maxIterations && residual > tolerance && rz != 0) {
+            apply(p, q);
+            double pq = dot(p, q);
+            if (pq == 0) break;
+            float alpha = (float) (rz / pq);
+            for (int j = 1; j < n - 1; j++) {
+                for (int i = 1; i < n - 1; i++) {
+                    int idx = i + j * n;
+                    xi[idx] += alpha * p[idx];
+                    r[idx] -= alpha * q[idx];
+                }
+            }
+            iterations++;
+            residual = (float) (Math.sqrt(dot(r, r)) / norm0);
+            if (residual <= tolerance) break;
+
+            precondition(r, z);
+            if (singular) removeMean(z);
+            double rzNew = dot(r, z);
+            float beta = (float) (rzNew / rz);
+            rz = rzNew;
+            for (int j = 1; j < n - 1; j++) {
+                for (int i = 1; i < n - 1; i++) {
+                    int idx = i + j * n;
+                    p[idx] = z[idx] + beta * p[idx];
+                }
+            }
+        }
+
+        for (int j = 1; j < n - 1; j++) {
+            for (int i = 1; i < n - 1; i++) {
+                int idx = i + j * n;
+                x[idx] = xi[idx];
+            }
+        }
+        setBounds(b, x, n);
+    }
+
+}
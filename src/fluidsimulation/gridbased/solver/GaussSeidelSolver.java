@@ -0,0 +1,39 @@
+package fluidsimulation.gridbased.solver;
+
+import static fluidsimulation.gridbased.solver.Boundary.setBounds;
+
+// Sequential lexicographic Gauss-Seidel, the original Eulerian solver
+public class GaussSeidelSolver extends LinearSolver {
+
+    public GaussSeidelSolver(int maxIterations, float tolerance) {
+        super(maxIterations, tolerance);
+    }
+
+    @Override
+    public void solve(int b, float[] x, float[] x0, float a, float c, int n) {
+        float cRecip = 1.0f / c;
+        iterations = 0;
+        residual = Float.NaN;
+        while (iterations < maxIterations) {
+            for (int j = 1; j < n - 1; j++) {
+                int row = j * n;
+                for (int i = 1; i < n - 1; i++) {
+                    int idx = row + i;
+                    x[idx] = (x0[idx] + a * (
+                            x[idx + 1] + x[idx - 1] + x[idx + n] + x[idx - n]
+                        )) * cRecip;
+                }
+            }
+
+            setBounds(b, x, n);
+            iterations++;
+
+            if (residualDue()) {
+                residual = relativeResidual(x, x0, a, c, n);
+                if (residual <= tolerance) return;
+            }
+        }
+        if (tolerance <= 0f && trackResidual) residual = relativeResidual(x, x0, a, c, n);
+    }
+
+}
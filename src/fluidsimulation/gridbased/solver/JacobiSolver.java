@@ -0,0 +1,66 @@
+package fluidsimulation.gridbased.solver;
+
+import util.ParallelFor;
+
+import static fluidsimulation.gridbased.solver.Boundary.setBounds;
+
+// Jacobi iteration, every cell is updated from the previous iterate so rows can run in parallel without coloring
+// converges about half as fast as Gauss-Seidel per iteration
+public class JacobiSolver extends LinearSolver {
+
+    private final ParallelFor parallel;
+    private float[] previous = new float[0];
+
+    // arguments of the running sweep, read by a range body built once instead of a capturing lambda per iteration
+    private float[] sweepX, sweepXOld, sweepX0;
+    private float sweepA, sweepCRecip;
+    private int sweepN;
+    private final ParallelFor.Range sweepRange = (from, to) -> sweep(sweepX, sweepXOld, sweepX0, sweepA, sweepCRecip, sweepN, from, to);
+
+    public JacobiSolver(int threads, int maxIterations, float tolerance) {
+        super(maxIterations, tolerance);
+        this.parallel = new ParallelFor(threads);
+    }
+
+    @Override
+    public void solve(int b, float[] x, float[] x0, float a, float c, int n) {
+        if (previous.length < n * n) previous = new float[n * n];
+        sweepX = x;
+        sweepXOld = previous;
+        sweepX0 = x0;
+        sweepA = a;
+        sweepCRecip = 1.0f / c;
+        sweepN = n;
+        iterations = 0;
+        residual = Float.NaN;
+        while (iterations < maxIterations) {
+            System.arraycopy(x, 0, previous, 0, n * n);
+            parallel.run(1, n - 1, sweepRange);
+
+            setBounds(b, x, n);
+            iterations++;
+
+            if (residualDue()) {
+                residual = relativeResidual(x, x0, a, c, n);
+                if (residual <= tolerance) return;
+            }
+        }
+        if (tolerance <= 0f && trackResidual) residual = relativeResidual(x, x0, a, c, n);
+    }
+
+    // rows [from, to), neighbors from the previous iterate
+    private static void sweep(float[] x, float[] xOld, float[] x0, float a, float cRecip, int n, int from, int to) {
+        for (int j = from; j < to; j++) {
+            for (int i = 1; i < n - 1; i++) {
+                int idx = i + j * n;
+                x[idx] = (x0[idx] + a * (xOld[idx + 1] + xOld[idx - 1] + xOld[idx + n] + xOld[idx - n])) * cRecip;
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        parallel.shutdown();
+    }
+
+}
@@ -0,0 +1,61 @@
+package fluidsimulation.gridbased.solver;
+
+// Solves c * x[i, j] - a * (x[i + 1, j] + x[i - 1, j] + x[i, j + 1] + x[i, j - 1]) = x0[i, j] on the interior of an n * n grid,
+// ghost cells follow Boundary.setBounds(b), so the system is the one the Gauss-Seidel sweeps of Eulerian converge to
+public abstract class LinearSolver {
+
+    protected final int maxIterations;
+    protected final float tolerance; // relative residual ||x0 - Ax|| / ||x0|| to stop at, 0 always runs maxIterations
+
+    // iterative sweeps check the tolerance every RESIDUAL_INTERVAL iterations and after the last one, a residual pass
+    // costs about as much as a sweep, so a solve may run up to RESIDUAL_INTERVAL - 1 sweeps past the tolerance
+    protected static final int RESIDUAL_INTERVAL = 4;
+
+    // stats of the last solve
+    protected int iterations;
+    protected float residual;
+
+    // solvers that run a fixed iteration count (tolerance 0) only pay for a residual pass when asked, NaN otherwise
+    protected boolean trackResidual = false;
+
+    protected LinearSolver(int maxIterations, float tolerance) {
+        this.maxIterations = maxIterations;
+        this.tolerance = tolerance;
+    }
+
+    public abstract void solve(int b, float[] x, float[] x0, float a, float c, int n);
+
+    public int iterations() {
+        return iterations;
+    }
+
+    public float residual() {
+        return residual;
+    }
+
+    public void trackResidual(boolean track) {
+        trackResidual = track;
+    }
+
+    public void shutdown() {}
+
+    // whether the sweep that just finished should be followed by a tolerance check
+    protected boolean residualDue() {
+        return tolerance > 0f && (iterations % RESIDUAL_INTERVAL == 0 || iterations == maxIterations);
+    }
+
+    // relative L2 norm of x0 - Ax over the interior, reads neighbors through the ghost cells so bounds must be set
+    protected static float relativeResidual(float[] x, float[] x0, float a, float c, int n) {
+        double sum = 0, norm = 0;
+        for (int j = 1; j < n - 1; j++) {
+            for (int i = 1; i < n - 1; i++) {
+                int idx = i + j * n;
+                double r = x0[idx] - (c * x[idx] - a * (x[idx + 1] + x[idx - 1] + x[idx + n] + x[idx - n]));
+                sum += r * r;
+                norm += (double) x0[idx] * x0[idx];
+            }
+        }
+        return norm > 0 ? (float) Math.sqrt(sum / norm) : (float) Math.sqrt(sum);
+    }
+
+}
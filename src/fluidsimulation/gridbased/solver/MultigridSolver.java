@@ -0,0 +1,238 @@
+package fluidsimulation.gridbased.solver;
+
+import util.ParallelFor;
+
+import java.util.Arrays;
+
+import static fluidsimulation.gridbased.solver.Boundary.setBounds;
+
+// Geometric multigrid V-cycles, every level uses the same IX(i, j) = i + j * n layout with a ghost layer
+// cell centered: restriction averages 2x2 fine cells, prolongation is bilinear, smoothing is red-black Gauss-Seidel
+// on a coarse level the neighbor coupling a shrinks by 4 (spacing doubles) while the diagonal excess c - 4a is kept
+// maxIterations counts V-cycles
+public class MultigridSolver extends LinearSolver {
+
+    private static final int MIN_INTERIOR = 4; // stop coarsening below this many interior cells per side
+    private static final int COARSE_SWEEPS = 40;
+
+    private final int preSmooth;
+    private final int postSmooth;
+    private final ParallelFor parallel;
+
+    private int levels;
+    private int[] ns = new int[0];
+    private float[][] xs; // level 0 is the caller's x, others are corrections
+    private float[][] rhs; // level 0 is the caller's x0
+    private float[][] res;
+    private float[] as;
+    private float[] cs;
+
+    // arguments of the running parallel pass, set right before each run, the range bodies are built once and read
+    // them from here instead of allocating a capturing lambda per sweep
+    private float[] passX, passX0, passR, passFine, passCoarse;
+    private float passA, passC, passCRecip;
+    private int passN, passNc, passParity;
+    private final ParallelFor.Range smoothRange = (from, to) -> smoothRows(passX, passX0, passA, passCRecip, passN, passParity, from, to);
+    private final ParallelFor.Range residualRange = (from, to) -> residualRows(passX, passX0, passR, passA, passC, passN, from, to);
+    private final ParallelFor.Range restrictRange = (from, to) -> restrictRows(passFine, passN, passCoarse, passNc, from, to);
+    private final ParallelFor.Range prolongRange = (from, to) -> prolongRows(passCoarse, passNc, passFine, passN, from, to);
+
+    public MultigridSolver(int threads, int maxCycles, float tolerance, int preSmooth, int postSmooth) {
+        super(maxCycles, tolerance);
+        this.preSmooth = preSmooth;
+        this.postSmooth = postSmooth;
+        this.parallel = new ParallelFor(threads);
+    }
+
+    public MultigridSolver(int threads, int maxCycles, float tolerance) {
+        this(threads, maxCycles, tolerance, 2, 2);
+    }
+
+    private void resize(int n) {
+        if (ns.length > 0 && ns[0] == n) return;
+        int count = 1;
+        for (int m = n - 2; m > MIN_INTERIOR; m = (m + 1) / 2) count++;
+        levels = count;
+        ns = new int[levels];
+        xs = new float[levels][];
+        rhs = new float[levels][];
+        res = new float[levels][];
+        as = new float[levels];
+        cs = new float[levels];
+        int m = n - 2;
+        for (int l = 0; l < levels; l++) {
+            ns[l] = m + 2;
+            if (l > 0) {
+                xs[l] = new float[ns[l] * ns[l]];
+                rhs[l] = new float[ns[l] * ns[l]];
+            }
+            res[l] = new float[ns[l] * ns[l]];
+            m = (m + 1) / 2;
+        }
+    }
+
+    @Override
+    public void solve(int b, float[] x, float[] x0, float a, float c, int n) {
+        resize(n);
+        xs[0] = x;
+        rhs[0] = x0;
+        as[0] = a;
+        cs[0] = c;
+        for (int l = 1; l < levels; l++) {
+            as[l] = as[l - 1] * 0.25f;
+            cs[l] = (c - 4 * a) + 4 * as[l];
+        }
+        boolean singular = b == 0 && Math.abs(c - 4 * a) <= 1e-6f * Math.abs(c);
+
+        setBounds(b, x, n);
+        iterations = 0;
+        residual = relativeResidual(x, x0, a, c, n);
+        while (iterations < maxIterations && residual > tolerance) {
+            vCycle(0, b, singular);
+            iterations++;
+            residual = relativeResidual(x, x0, a, c, n);
+        }
+    }
+
+    private void vCycle(int l, int b, boolean singular) {
+        int n = ns[l];
+        float[] x = xs[l];
+        if (l == levels - 1) {
+            for (int k = 0; k < COARSE_SWEEPS; k++) smooth(b, x, rhs[l], as[l], cs[l], n);
+            return;
+        }
+
+        for (int k = 0; k < preSmooth; k++) smooth(b, x, rhs[l], as[l], cs[l], n);
+
+        computeResidual(x, rhs[l], res[l], as[l], cs[l], n);
+        int nc = ns[l + 1];
+        restrict(res[l], n, rhs[l + 1], nc);
+        if (singular) removeMean(rhs[l + 1], nc);
+        Arrays.fill(xs[l + 1], 0f);
+
+        vCycle(l + 1, b, singular);
+
+        setBounds(b, xs[l + 1], nc);
+        prolongAdd(xs[l + 1], nc, x, n);
+        setBounds(b, x, n);
+
+        for (int k = 0; k < postSmooth; k++) smooth(b, x, rhs[l], as[l], cs[l], n);
+    }
+
+    private void smooth(int b, float[] x, float[] x0, float a, float c, int n) {
+        passX = x;
+        passX0 = x0;
+        passA = a;
+        passCRecip = 1.0f / c;
+        passN = n;
+        for (int color = 0; color < 2; color++) {
+            passParity = color;
+            parallel.run(1, n - 1, smoothRange);
+        }
+        setBounds(b, x, n);
+    }
+
+    private static void smoothRows(float[] x, float[] x0, float a, float cRecip, int n, int parity, int from, int to) {
+        for (int j = from; j < to; j++) {
+            int row = j * n;
+            for (int i = ((1 + j) & 1) == parity ? 1 : 2; i < n - 1; i += 2) {
+                int idx = row + i;
+                x[idx] = (x0[idx] + a * (x[idx + 1] + x[idx - 1] + x[idx + n] + x[idx - n])) * cRecip;
+            }
+        }
+    }
+
+    private void computeResidual(float[] x, float[] x0, float[] r, float a, float c, int n) {
+        passX = x;
+        passX0 = x0;
+        passR = r;
+        passA = a;
+        passC = c;
+        passN = n;
+        parallel.run(1, n - 1, residualRange);
+    }
+
+    private static void residualRows(float[] x, float[] x0, float[] r, float a, float c, int n, int from, int to) {
+        for (int j = from; j < to; j++) {
+            int row = j * n;
+            for (int i = 1; i < n - 1; i++) {
+                int idx = row + i;
+                r[idx] = x0[idx] - (c * x[idx] - a * (x[idx + 1] + x[idx - 1] + x[idx + n] + x[idx - n]));
+            }
+        }
+    }
+
+    // coarse interior cell (ci, cj) covers fine interior cells 2ci, 2ci + 1 (0 based), averages the ones that exist
+    private void restrict(float[] fine, int n, float[] coarse, int nc) {
+        passFine = fine;
+        passN = n;
+        passCoarse = coarse;
+        passNc = nc;
+        parallel.run(0, nc - 2, restrictRange);
+    }
+
+    private static void restrictRows(float[] fine, int n, float[] coarse, int nc, int from, int to) {
+        int m = n - 2;
+        for (int cj = from; cj < to; cj++) {
+            for (int ci = 0; ci < nc - 2; ci++) {
+                float sum = 0f;
+                int count = 0;
+                for (int fj = 2 * cj; fj < Math.min(2 * cj + 2, m); fj++) {
+                    for (int fi = 2 * ci; fi < Math.min(2 * ci + 2, m); fi++) {
+                        sum += fine[(fi + 1) + (fj + 1) * n];
+                        count++;
+                    }
+                }
+                coarse[(ci + 1) + (cj + 1) * nc] = sum / count;
+            }
+        }
+    }
+
+    // bilinear: 9/16 own coarse cell, 3/16 each of the two coarse cells towards the fine cell, 1/16 the diagonal one
+    // coarse ghost cells are set, so fine cells on the edge interpolate towards the mirrored value
+    private void prolongAdd(float[] coarse, int nc, float[] fine, int n) {
+        passCoarse = coarse;
+        passNc = nc;
+        passFine = fine;
+        passN = n;
+        parallel.run(0, n - 2, prolongRange);
+    }
+
+    private static void prolongRows(float[] coarse, int nc, float[] fine, int n, int from, int to) {
+        int m = n - 2;
+        for (int fj = from; fj < to; fj++) {
+            int cj = fj / 2 + 1;
+            int dj = (fj & 1) == 0 ? -nc : nc;
+            for (int fi = 0; fi < m; fi++) {
+                int ci = fi / 2 + 1;
+                int di = (fi & 1) == 0 ? -1 : 1;
+                int idx = ci + cj * nc;
+                fine[(fi + 1) + (fj + 1) * n] +=
+                    0.5625f * coarse[idx] +
+                    0.1875f * (coarse[idx + di] + coarse[idx + dj]) +
+                    0.0625f * coarse[idx + di + dj];
+            }
+        }
+    }
+
+    private static void removeMean(float[] v, int n) {
+        double sum = 0;
+        for (int j = 1; j < n - 1; j++) {
+            for (int i = 1; i < n - 1; i++) {
+                sum += v[i + j * n];
+            }
+        }
+        float mean = (float) (sum / ((n - 2) * (n - 2)));
+        for (int j = 1; j < n - 1; j++) {
+            for (int i = 1; i < n - 1; i++) {
+                v[i + j * n] -= mean;
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        parallel.shutdown();
+    }
+
+}
@@ -0,0 +1,78 @@
+package fluidsimulation.gridbased.solver;
+
+// Conjugate gradient with a modified incomplete Cholesky, MIC(0), preconditioner (Bridson, Fluid Simulation for Computer Graphics)
+// the factor only depends on the operator, so it is rebuilt only when b, a, c or n change between solves
+public class PreconditionedCGSolver extends ConjugateGradientSolver {
+
+    private static final float TAU = 0.97f; // 0 = plain incomplete Cholesky, 1 = fully modified
+    private static final float SIGMA = 0.25f; // safety bound for tiny pivots
+
+    private float[] precon = new float[0];
+    private float[] t = new float[0];
+
+    private int lastB = -1;
+    private float lastA = Float.NaN;
+    private float lastC = Float.NaN;
+    private int lastN = -1;
+
+    public PreconditionedCGSolver(int maxIterations, float tolerance) {
+        super(maxIterations, tolerance);
+    }
+
+    @Override
+    protected void prepare(int b, float a, float c) {
+        if (b == lastB && a == lastA && c == lastC && n == lastN) return;
+        lastB = b;
+        lastA = a;
+        lastC = c;
+        lastN = n;
+        if (precon.length != n * n) {
+            precon = new float[n * n];
+            t = new float[n * n];
+        }
+
+        // off diagonals are -a between interior neighbors and 0 towards ghost cells
+        for (int j = 1; j < n - 1; j++) {
+            for (int i = 1; i < n - 1; i++) {
+                int idx = i + j * n;
+                float d = diag[idx];
+                float e = d;
+                if (i > 1) {
+                    float aW = -a; // coupling to the west neighbor
+                    float aWUp = j < n - 2 ? -a : 0f; // west neighbor's coupling to its south neighbor
+                    float pW = precon[idx - 1];
+                    e -= (aW * pW) * (aW * pW) + TAU * aW * aWUp * pW * pW;
+                }
+                if (j > 1) {
+                    float aN = -a;
+                    float aNRight = i < n - 2 ? -a : 0f;
+                    float pN = precon[idx - n];
+                    e -= (aN * pN) * (aN * pN) + TAU * aN * aNRight * pN * pN;
+                }
+                if (e < SIGMA * d) e = d;
+                precon[idx] = e > 0 ? (float) (1.0 / Math.sqrt(e)) : 0f;
+            }
+        }
+    }
+
+    @Override
+    protected void precondition(float[] r, float[] z) {
+        // solve L t = r, ghost entries of t and precon are 0 so edge cells need no special case
+        for (int j = 1; j < n - 1; j++) {
+            for (int i = 1; i < n - 1; i++) {
+                int idx = i + j * n;
+                float s = r[idx] + a * (precon[idx - 1] * t[idx - 1] + precon[idx - n] * t[idx - n]);
+                t[idx] = s * precon[idx];
+            }
+        }
+        // solve L^T z = t
+        for (int j = n - 2; j >= 1; j--) {
+            for (int i = n - 2; i >= 1; i--) {
+                int idx = i + j * n;
+                float s = t[idx] + a * precon[idx] * (z[idx + 1] + z[idx + n]);
+                z[idx] = s * precon[idx];
+            }
+        }
+    }
+
+}
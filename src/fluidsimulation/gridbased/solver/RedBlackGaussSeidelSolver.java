@@ -0,0 +1,68 @@
+package fluidsimulation.gridbased.solver;
+
+import util.ParallelFor;
+
+import static fluidsimulation.gridbased.solver.Boundary.setBounds;
+
+// Gauss-Seidel with red-black ordering: cells with (i + j) even are updated first, then odd cells
+// a cell's 4 neighbors all have the other color, so each half sweep has no read/write overlap and rows can run in parallel
+public class RedBlackGaussSeidelSolver extends LinearSolver {
+
+    private final ParallelFor parallel;
+
+    // arguments of the running half sweep, read by a range body built once instead of a capturing lambda per sweep
+    private float[] sweepX, sweepX0;
+    private float sweepA, sweepCRecip;
+    private int sweepN, sweepParity;
+    private final ParallelFor.Range sweepRange = (from, to) -> sweep(sweepX, sweepX0, sweepA, sweepCRecip, sweepN, sweepParity, from, to);
+
+    public RedBlackGaussSeidelSolver(int threads, int maxIterations, float tolerance) {
+        super(maxIterations, tolerance);
+        this.parallel = new ParallelFor(threads);
+    }
+
+    @Override
+    public void solve(int b, float[] x, float[] x0, float a, float c, int n) {
+        sweepX = x;
+        sweepX0 = x0;
+        sweepA = a;
+        sweepCRecip = 1.0f / c;
+        sweepN = n;
+        iterations = 0;
+        residual = Float.NaN;
+        while (iterations < maxIterations) {
+            for (int color = 0; color < 2; color++) {
+                sweepParity = color;
+                parallel.run(1, n - 1, sweepRange);
+            }
+
+            setBounds(b, x, n);
+            iterations++;
+
+            if (residualDue()) {
+                residual = relativeResidual(x, x0, a, c, n);
+                if (residual <= tolerance) return;
+            }
+        }
+        if (tolerance <= 0f && trackResidual) residual = relativeResidual(x, x0, a, c, n);
+    }
+
+    // rows [from, to) of one color
+    private static void sweep(float[] x, float[] x0, float a, float cRecip, int n, int parity, int from, int to) {
+        for (int j = from; j < to; j++) {
+            int row = j * n;
+            for (int i = ((1 + j) & 1) == parity ? 1 : 2; i < n - 1; i += 2) {
+                int idx = row + i;
+                x[idx] = (x0[idx] + a * (
+                        x[idx + 1] + x[idx - 1] + x[idx + n] + x[idx - n]
+                    )) * cRecip;
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        parallel.shutdown();
+    }
+
+}
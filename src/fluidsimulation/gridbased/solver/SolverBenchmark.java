@@ -0,0 +1,109 @@
+package fluidsimulation.gridbased.solver;
+
+import java.util.Arrays;
+import java.util.Random;
+
+// Benchmarks the linear solvers on the pressure equation of Eulerian.project (b = 0, a = 1, c = 4) with a random divergence
+//  1. residual after each iteration, sequential vs red-black Gauss-Seidel
+//  2. time and iterations (V-cycles for multigrid) to reach TOLERANCE for every solver
+//  3. thread scaling of a fixed 10 iteration red-black solve
+// run with: java fluidsimulation.gridbased.solver.SolverBenchmark [maxThreads] [sizes...]
+public class SolverBenchmark {
+
+    private static final int ITERATIONS = 10;
+    private static final int MAX_ITERATIONS = 2000;
+    private static final float TOLERANCE = 1e-3f;
+    private static final int REPEATS = 10;
+
+    // zero mean, so the singular pure Neumann system is consistent and every solver can reach the tolerance
+    private static float[] randomDivergence(int n, long seed) {
+        Random rand = new Random(seed);
+        float[] div = new float[n * n];
+        double sum = 0;
+        for (int j = 1; j < n - 1; j++) {
+            for (int i = 1; i < n - 1; i++) {
+                div[i + j * n] = (rand.nextFloat() - 0.5f) / n;
+                sum += div[i + j * n];
+            }
+        }
+        float mean = (float) (sum / ((n - 2) * (n - 2)));
+        for (int j = 1; j < n - 1; j++) {
+            for (int i = 1; i < n - 1; i++) {
+                div[i + j * n] -= mean;
+            }
+        }
+        Boundary.setBounds(0, div, n);
+        return div;
+    }
+
+    public static void main(String[] args) {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int[] sizes = {256, 512, 1024};
+        if (args.length > 1) {
+            sizes = new int[args.length - 1];
+            for (int k = 1; k < args.length; k++) sizes[k - 1] = Integer.parseInt(args[k]);
+        }
+
+        for (int n : sizes) {
+            float[] div = randomDivergence(n, 42);
+            System.out.println("N = " + n);
+
+            System.out.println("iteration\tsequential\tred-black");
+            LinearSolver sequential = new GaussSeidelSolver(1, 0f);
+            LinearSolver redBlack = new RedBlackGaussSeidelSolver(1, 1, 0f);
+            sequential.trackResidual(true);
+            redBlack.trackResidual(true);
+            float[] pSeq = new float[n * n];
+            float[] pRB = new float[n * n];
+            for (int k = 1; k <= ITERATIONS; k++) {
+                sequential.solve(0, pSeq, div, 1, 4, n);
+                redBlack.solve(0, pRB, div, 1, 4, n);
+                System.out.printf("%d\t%.6e\t%.6e%n", k, sequential.residual(), redBlack.residual());
+            }
+
+            System.out.println("solver\titerations\tms\tresidual (tolerance " + TOLERANCE + ")");
+            LinearSolver[] solvers = {
+                new GaussSeidelSolver(MAX_ITERATIONS, TOLERANCE),
+                new RedBlackGaussSeidelSolver(maxThreads, MAX_ITERATIONS, TOLERANCE),
+                new JacobiSolver(maxThreads, MAX_ITERATIONS, TOLERANCE),
+                new ConjugateGradientSolver(MAX_ITERATIONS, TOLERANCE),
+                new PreconditionedCGSolver(MAX_ITERATIONS, TOLERANCE),
+                new MultigridSolver(maxThreads, MAX_ITERATIONS, TOLERANCE)
+            };
+            double gaussSeidelMs = 0;
+            for (LinearSolver solver : solvers) {
+                double ms = time(solver, n, div, 0, 1);
+                if (solver instanceof GaussSeidelSolver) gaussSeidelMs = ms;
+                System.out.printf("%s\t%d\t%.3f\t%.3e\t%.1fx vs Gauss-Seidel%s%n", solver.getClass().getSimpleName(), solver.iterations(), ms,
+                        solver.residual(), gaussSeidelMs / ms, solver.residual() > TOLERANCE ? " (did not reach tolerance)" : "");
+                solver.shutdown();
+            }
+
+            System.out.println("threads\tms/solve\tspeedup (red-black, " + ITERATIONS + " iterations)");
+            double baseline = 0;
+            for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads)) {
+                LinearSolver solver = new RedBlackGaussSeidelSolver(threads, ITERATIONS, 0f);
+                double ms = time(solver, n, div, REPEATS, REPEATS);
+                if (threads == 1) baseline = ms;
+                System.out.printf("%d\t%.3f\t%.2fx%n", threads, ms, baseline / ms);
+                solver.shutdown();
+                if (threads >= maxThreads) break;
+            }
+            System.out.println();
+        }
+    }
+
+    private static double time(LinearSolver solver, int n, float[] div, int warmups, int repeats) {
+        float[] p = new float[n * n];
+        for (int r = 0; r < warmups; r++) solve(solver, p, div, n);
+        long start = System.nanoTime();
+        for (int r = 0; r < repeats; r++) solve(solver, p, div, n);
+        return (System.nanoTime() - start) / 1e6 / repeats;
+    }
+
+    private static void solve(LinearSolver solver, float[] p, float[] div, int n) {
+        Arrays.fill(p, 0f);
+        solver.solve(0, p, div, 1, 4, n);
+    }
+
+}
@@ -0,0 +1,50 @@
+package fluidsimulation.particlebased;
+
+import fluidsimulation.FluidSimulation;
+
+import java.lang.management.ManagementFactory;
+
+//Allocation rate regression check for the SPH passes, fails if a warmed up step allocates more than the budget
+//run with: java fluidsimulation.particlebased.AllocationCheck [sqrtParticlesAmount] [steps]
+public class AllocationCheck
+{
+
+	private static final long BUDGET_BYTES_PER_STEP = 64; //slack for measurement noise, steady state should be 0
+
+	private static long allocatedBytes()
+	{
+		return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static boolean check(String name, FluidSimulation simulation, int steps)
+	{
+		for (int i = 0; i < steps; i++) //warm up, lets the JIT compile the passes and the stores reach their final capacity
+		{
+			simulation.update();
+		}
+
+		long before = allocatedBytes();
+		for (int i = 0; i < steps; i++)
+		{
+			simulation.update();
+		}
+		long perStep = (allocatedBytes() - before) / steps;
+
+		boolean ok = perStep <= BUDGET_BYTES_PER_STEP;
+		System.out.println((ok ? "OK     " : "FAILED ") + name + ": " + perStep + " bytes/step");
+		return ok;
+	}
+
+	public static void main(String[] args)
+	{
+		int sqrtParticlesAmount = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+		int steps = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		int particlesAmount = sqrtParticlesAmount * sqrtParticlesAmount;
+
+		boolean ok = check("Lagrangian", new Lagrangian(sqrtParticlesAmount, particlesAmount), steps);
+		ok &= check("GridLagrangian", new GridLagrangian(sqrtParticlesAmount, particlesAmount), steps);
+		if (!ok)
+			System.exit(1);
+	}
+
+}
@@ -0,0 +1,25 @@
+package fluidsimulation.particlebased;
+
+//Every particle is a candidate of every other particle, O(n^2) per step, kept as the reference path
+public class BruteForceSearch implements NeighborSearch
+{
+
+	private int count;
+
+	@Override
+	public void rebuild(float[] x, float[] y, int count, float cellSize)
+	{
+		this.count = count;
+	}
+
+	@Override
+	public int gather(float posX, float posY, int[] out)
+	{
+		for (int i = 0; i < count; i++)
+		{
+			out[i] = i;
+		}
+		return count;
+	}
+
+}
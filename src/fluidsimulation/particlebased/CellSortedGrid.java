@@ -0,0 +1,132 @@
+package fluidsimulation.particlebased;
+
+import java.util.Arrays;
+
+//Bounded uniform grid rebuilt with a counting sort: particles of cell c are sortedIdx[cellStart[c], cellStart[c] + cellCount[c])
+//positions outside [0, width) x [0, height) are clamped into the edge cells, which keeps every pair closer than cellSize in adjacent cells
+public class CellSortedGrid implements NeighborSearch
+{
+
+	private final float width;
+	private final float height;
+
+	private float cellSize;
+	private int cols;
+	private int rows;
+
+	private int[] cellStart = new int[0];
+	private int[] cellCount = new int[0];
+	private int[] sortedIdx = new int[0];
+	private int[] particleCell = new int[0];
+
+	public CellSortedGrid(float width, float height)
+	{
+		this.width = width;
+		this.height = height;
+	}
+
+	private static int clamp(int x, int a, int b) {
+		if (x < a) return a;
+		if (x > b) return b;
+		return x;
+	}
+
+	public int cols()
+	{
+		return cols;
+	}
+
+	public int rows()
+	{
+		return rows;
+	}
+
+	//first sorted slot of each cell
+	public int[] cellStart()
+	{
+		return cellStart;
+	}
+
+	//number of particles in each cell
+	public int[] cellCount()
+	{
+		return cellCount;
+	}
+
+	//particle indices ordered by cell, usable as a permutation for ParticleStore.permute
+	public int[] sortedIdx()
+	{
+		return sortedIdx;
+	}
+
+	public int cellOf(float posX, float posY)
+	{
+		int cx = clamp((int)Math.floor(posX / cellSize), 0, cols - 1);
+		int cy = clamp((int)Math.floor(posY / cellSize), 0, rows - 1);
+		return cx + cy * cols;
+	}
+
+	@Override
+	public void rebuild(float[] x, float[] y, int count, float cellSize)
+	{
+		if (this.cellSize != cellSize || cellStart.length == 0)
+		{
+			this.cellSize = cellSize;
+			this.cols = Math.max(1, (int)Math.ceil(width / cellSize));
+			this.rows = Math.max(1, (int)Math.ceil(height / cellSize));
+			cellStart = new int[cols * rows];
+			cellCount = new int[cols * rows];
+		}
+		if (sortedIdx.length < count)
+		{
+			sortedIdx = new int[count];
+			particleCell = new int[count];
+		}
+
+		//counting sort: histogram, exclusive prefix sum, scatter
+		Arrays.fill(cellCount, 0);
+		for (int i = 0; i < count; i++)
+		{
+			int c = cellOf(x[i], y[i]);
+			particleCell[i] = c;
+			cellCount[c]++;
+		}
+		int sum = 0;
+		for (int c = 0; c < cellStart.length; c++)
+		{
+			cellStart[c] = sum;
+			sum += cellCount[c];
+		}
+		for (int c = 0; c < cellStart.length; c++)
+		{
+			cellCount[c] = 0; //reused as a fill cursor
+		}
+		for (int i = 0; i < count; i++)
+		{
+			int c = particleCell[i];
+			sortedIdx[cellStart[c] + cellCount[c]++] = i;
+		}
+	}
+
+	@Override
+	public int gather(float posX, float posY, int[] out)
+	{
+		int cx = clamp((int)Math.floor(posX / cellSize), 0, cols - 1);
+		int cy = clamp((int)Math.floor(posY / cellSize), 0, rows - 1);
+		int n = 0;
+		for (int ny = Math.max(cy - 1, 0); ny <= Math.min(cy + 1, rows - 1); ny++)
+		{
+			for (int nx = Math.max(cx - 1, 0); nx <= Math.min(cx + 1, cols - 1); nx++)
+			{
+				int c = nx + ny * cols;
+				int end = cellStart[c] + cellCount[c];
+				for (int k = cellStart[c]; k < end; k++)
+				{
+					out[n++] = sortedIdx[k];
+				}
+			}
+		}
+		return n;
+	}
+
+}
@@ -1,13 +1,17 @@
 package fluidsimulation.particlebased;
 
+import fluidsimulation.FieldFrame;
 import fluidsimulation.FluidSimulation;
-import game.Main;
-import util.Pair;
+import fluidsimulation.Metrics;
+import fluidsimulation.SimulationConfig;
+import util.Checkpoint;
+import util.ParallelFor;
+import util.PixelRaster;
+import util.StateRandom;
 import util.Vector2;
 
+import java.io.IOException;
 import java.lang.Math;
-import java.util.ArrayList;
-import java.util.Random;
 import java.awt.Color;
 import java.awt.Graphics;
 
@@ -15,135 +19,130 @@ public class GridLagrangian extends FluidSimulation
 {
 	
 	//solver parameters
-	private static Vector2 G = new Vector2(0f, 12000 * 9.8f);	//external forces (gravity)
-	private static float REST_DENS = 1000f;
-	private static float GAS_CONST = 2000f;
-	private static float H = 8f;
-	private static float HSQ = H * H;
-	private static float MASS = 65f;
-	private static float VISC = 250f;
-	private static float DT = 0.0008f;
+	private static final Vector2 G = new Vector2(0f, 12000 * 9.8f);	//external forces (gravity)
+	private static final float REST_DENS = 1000f;
+	private static final float GAS_CONST = 2000f;
+	private float h;
+	private float hSq;
+	private static final float MASS = 65f;
+	private static final float VISC = 250f;
+	private static final float DT = 0.0008f;
+	private static final int SUBSTEPS = 4;
 
 	//smoothing kernels defined in Müller and their gradients
-	private static float POLY6 = (float)(315f / (65f * Math.PI * Math.pow(H, 9f)));
-	private static float SPIKY_GRAD = (float)(-45f / (Math.PI * Math.pow(H, 6f)));
-	private static float VISC_LAP = (float)(45f / (Math.PI * Math.pow(H, 6f)));
+	private float poly6;
+	private float spikyGrad;
+	private float viscLap;
 
 	//simulation parameters
-	private static float EPS = H;
+	private float eps;
 	private static final float BOUND_DAMPING = -0.5f;
 	
 	//TODO: implement surface tension
 	
 	//rendering fields
-	private static int PARTICLE_DIAMETER = (int)(H);
-	private static int PARTICLE_RADIUS = PARTICLE_DIAMETER / 2;
+	private int particleDiameter;
+	private int particleRadius;
+	private PixelRaster.Stamp splat;
+	private static final int PARTICLE_COLOR = Color.ORANGE.getRGB() & 0xffffff;
 	
-	private static class Particle
-	{
-		
-		private Vector2 x;
-		private Vector2 v;
-		private Vector2 f;
-		private float rho;
-		private float p;
+	private StateRandom rand;
+	
+	//cell index rebuilt with a counting sort every step, particles are then reordered so each cell's particles are contiguous
+	private CellSortedGrid grid;
+	private ParticleStore particles;
 
-		public Particle(float posX, float posY, float vX, float vY)
-		{
-			this.x = new Vector2(posX, posY);
-			this.v = new Vector2(vX, vY);
-			this.f = new Vector2(0f, 0f);
-			this.rho = 0f;
-			this.p = 0f;
-		}
-		
-	}
+	//each phase is split into cell or particle ranges, every particle is written by exactly one task so results match the serial step
+	private ParallelFor parallel;
+	//phase bodies are built once, a capturing lambda per call would allocate every step
+	private final ParallelFor.Range densityRange = (from, to) -> computeDensityPressure(grid, particles, from, to);
+	private final ParallelFor.Range forceRange = (from, to) -> computeForces(grid, particles, from, to);
+	private final ParallelFor.Range integrateRange = (from, to) -> integrate(particles, from, to);
 
-	private Random rand;
-	
-	private static ArrayList<Integer>[][] grid;
-	private static ArrayList<Pair<Particle, Pair<Integer, Integer>>> particles;
+	private final Metrics.Phase gridPhase = metrics.phase("grid");
+	private final Metrics.Phase densityPhase = metrics.phase("density");
+	private final Metrics.Phase forcePhase = metrics.phase("force");
+	private final Metrics.Phase integratePhase = metrics.phase("integrate");
+	private final Metrics.Gauge particlesGauge = metrics.gauge("particles");
 
-	private static void addParticle(float posX, float posY, float vX, float vY)
+	private void addParticle(float posX, float posY, float vX, float vY)
 	{
-		Particle particle = new Particle(posX, posY, vX, vY);
-		int i = (int)(posY / H) + 1; //+ 1 to account for empty boundary grid cells
-		int j = (int)(posX / H) + 1;
-		Pair<Integer, Integer> idx = new Pair<Integer, Integer>(i, j);
-		particles.add(new Pair<Particle, Pair<Integer, Integer>>(particle, idx));
-		grid[i][j].add(particles.size() - 1);
+		particles.add(posX, posY, vX, vY);
 	}
 
-	private static int clamp(int x, int a, int b) {
-		if (x < a) return a;
-		if (x > b) return b;
-		return x;
-	}
-	
-	private static void moveParticle(int idx, Vector2 newPos)
+	//Sorts particles by cell, afterwards the particles of cell c are [cellStart[c], cellStart[c] + cellCount[c])
+	private void rebuildGrid(CellSortedGrid grid, ParticleStore particles)
 	{
-		Pair<Particle, Pair<Integer, Integer>> pair = particles.get(idx);
-
-		grid[pair.S.F][pair.S.S].remove((Integer)(idx));
-
-		int i = (int) (newPos.y / H) + 1;
-		i = clamp(i, 0, grid.length);
-		int j = (int) (newPos.x / H) + 1;
-		j = clamp(j, 0, grid[i].length);
-		grid[i][j].add(idx);
-
-		pair.F.x.set(newPos);
-		pair.S.F = i;
-		pair.S.S = j;
+		grid.rebuild(particles.x, particles.y, particles.count, h);
+		particles.permute(grid.sortedIdx());
 	}
 	
 	@Override
 	protected void init(int sqrtParticlesAmount, int particlesAmount)
 	{
-		GridLagrangian.H = (float)(Main.WIN_HEIGHT / sqrtParticlesAmount / 2f); //÷ 2f so that particles have space to move in window
-		GridLagrangian.HSQ = H * H;
+		this.h = (float)(config.height / sqrtParticlesAmount / 2f); //÷ 2f so that particles have space to move in window
+		this.hSq = h * h;
 		
-		GridLagrangian.POLY6 = (float)(315f / (65f * Math.PI * Math.pow(H, 9f)));
-		GridLagrangian.SPIKY_GRAD = (float)(-45f / (Math.PI * Math.pow(H, 6f)));
-		GridLagrangian.VISC_LAP = (float)(45f / (Math.PI * Math.pow(H, 6f)));
+		this.poly6 = (float)(315f / (65f * Math.PI * Math.pow(h, 9f)));
+		this.spikyGrad = (float)(-45f / (Math.PI * Math.pow(h, 6f)));
+		this.viscLap = (float)(45f / (Math.PI * Math.pow(h, 6f)));
 		
-		GridLagrangian.EPS = H;
+		this.eps = h;
 		
-		GridLagrangian.PARTICLE_DIAMETER = (int)(H);
-		GridLagrangian.PARTICLE_RADIUS = PARTICLE_DIAMETER / 2;
+		this.particleDiameter = (int)(h);
+		this.particleRadius = particleDiameter / 2;
+		splat = PixelRaster.Stamp.oval(particleDiameter);
 
-		int gridHeight = (int)(Main.WIN_HEIGHT / H) + 3; //empty boundary grid cells for efficiency (+2) with +1 = 3 for ceiling
-		int gridWidth = (int)(Main.WIN_WIDTH / H) + 3;
-		grid = new ArrayList[gridHeight][gridWidth];
-		for (int i = 0; i < gridHeight; i++)
-		{
-			for (int j = 0; j < gridWidth; j++)
-			{
-				grid[i][j] = new ArrayList<Integer>();
-			}
-		}
-		
-		particles = new ArrayList<Pair<Particle, Pair<Integer, Integer>>>();
+		grid = new CellSortedGrid(config.width, config.height);
+		particles = new ParticleStore(particlesAmount);
 		
 		//filling screen with random fluid
-		rand = new Random();
-		for (int i = 0; i < particlesAmount; i++)
+		rand = createRandom();
+		if (config.fill)
 		{
-			addParticle(rand.nextInt(Main.WIN_WIDTH), rand.nextInt(Main.WIN_HEIGHT), (rand.nextFloat() - 0.5f) * 2f * 10f, (rand.nextFloat() - 0.5f) * 2f * 10f);
+			for (int i = 0; i < particlesAmount; i++)
+			{
+				addParticle(rand.nextInt(config.width), rand.nextInt(config.height), (rand.nextFloat() - 0.5f) * 2f * 10f, (rand.nextFloat() - 0.5f) * 2f * 10f);
+			}
 		}
 	}
 	
+	public GridLagrangian(SimulationConfig config)
+	{
+		super(config);
+		this.parallel = new ParallelFor(config.threads);
+		init(config.size, config.particlesAmount());
+	}
+
 	public GridLagrangian(int sqrtParticlesAmount, int particles)
 	{
-		init(sqrtParticlesAmount, particles);
+		this(sqrtParticlesAmount, particles, 1);
+	}
+
+	public GridLagrangian(int sqrtParticlesAmount, int particles, int threads)
+	{
+		this(new SimulationConfig().size(sqrtParticlesAmount).particles(particles).threads(threads));
+	}
+
+	@Override
+	public void dispose()
+	{
+		parallel.shutdown();
 	}
 	
 	@Override
-	public void update()
+	protected void step()
 	{
-		computeDensityPressure(grid, particles);
-		computeForces(grid, particles);
-		integrate(particles);
+		long lap = metrics.now();
+		gridPass();
+		lap = gridPhase.lap(lap);
+		densityPass();
+		lap = densityPhase.lap(lap);
+		forcePass();
+		lap = forcePhase.lap(lap);
+		integratePass();
+		integratePhase.lap(lap);
+		particlesGauge.set(particles.count);
 	}
 	
 	@Override
@@ -153,120 +152,262 @@ public class GridLagrangian extends FluidSimulation
 	}
 
 	@Override
-	public void render(Graphics g)
+	public void addFluid(int[] mouseX, int[] mouseY, int count)
+	{
+		particles.ensureCapacity(particles.count + count); //grow once for the whole batch
+		for (int k = 0; k < count; k++)
+		{
+			addParticle(mouseX[k], mouseY[k], (rand.nextFloat() - 0.5f) * 2f * 10f, (rand.nextFloat() - 0.5f) * 2f * 10f);
+		}
+	}
+
+	@Override
+	public int substepsPerFrame()
+	{
+		return SUBSTEPS;
+	}
+
+	@Override
+	public void exportFields(FieldFrame frame)
+	{
+		int count = particles.count;
+		System.arraycopy(particles.x, 0, frame.field("x", count, 1), 0, count);
+		System.arraycopy(particles.y, 0, frame.field("y", count, 1), 0, count);
+	}
+
+	@Override
+	protected void writeState(Checkpoint.Writer out) throws IOException
+	{
+		particles.write(out);
+		out.putRandom(rand);
+	}
+
+	@Override
+	protected void readState(Checkpoint.Reader in) throws IOException
+	{
+		particles.read(in);
+		rand = in.getRandom();
+	}
+
+	@Override
+	protected Snapshot createSnapshot()
+	{
+		return new Frame();
+	}
+
+	//particle positions only, that is all render() needs
+	private class Frame extends Snapshot
 	{
-		g.setColor(Color.ORANGE);
-		for (Pair<Particle, Pair<Integer, Integer>> pair : particles)
+		private int count;
+		private float[] x = new float[0];
+		private float[] y = new float[0];
+		private final PixelRaster raster = new PixelRaster(config.width, config.height);
+
+		@Override
+		protected void capture()
 		{
-			int x = (int)(pair.F.x.x) - PARTICLE_RADIUS;
-			int y = (int)(pair.F.x.y) - PARTICLE_RADIUS;
-			g.fillOval(x, y, PARTICLE_DIAMETER, PARTICLE_DIAMETER);
+			count = particles.count;
+			if (x.length < count)
+			{
+				x = new float[particles.x.length];
+				y = new float[particles.y.length];
+			}
+			System.arraycopy(particles.x, 0, x, 0, count);
+			System.arraycopy(particles.y, 0, y, 0, count);
+		}
+
+		@Override
+		public void render(Graphics g)
+		{
+			raster.draw(this::drawRows);
+			raster.blit(g);
+		}
+
+		private void drawRows(int yFrom, int yTo)
+		{
+			for (int i = 0; i < count; i++)
+			{
+				int py = (int)(y[i]) - particleRadius;
+				if (py >= yTo || py + splat.height <= yFrom) continue;
+				int px = (int)(x[i]) - particleRadius;
+				raster.stamp(splat, px, py, PARTICLE_COLOR, yFrom, yTo);
+			}
 		}
 	}
 
 	/*--------------------------------**  util  **--------------------------------*/
 
-	private static void computeDensityPressure(ArrayList<Integer>[][] grid, ArrayList<Pair<Particle, Pair<Integer, Integer>>> particles) 
+	//phases of update(), package-private for SphKernelBenchmark
+	void gridPass()
+	{
+		rebuildGrid(grid, particles);
+	}
+
+	void densityPass()
 	{
-		for (Pair<Particle, Pair<Integer, Integer>> pair : particles)
+		parallel.run(0, grid.cols() * grid.rows(), densityRange);
+	}
+
+	void forcePass()
+	{
+		parallel.run(0, grid.cols() * grid.rows(), forceRange);
+	}
+
+	void integratePass()
+	{
+		parallel.run(0, particles.count, integrateRange);
+	}
+
+	//hook for ScalingBenchmark, to check that every thread count ends in the same state
+	long checksum()
+	{
+		long hash = particles.count;
+		for (int i = 0; i < particles.count; i++)
+		{
+			hash = hash * 31 + Float.floatToIntBits(particles.x[i]);
+			hash = hash * 31 + Float.floatToIntBits(particles.y[i]);
+		}
+		return hash;
+	}
+
+	//Walks cells [cellFrom, cellTo), the 3x3 block of neighbor cells is read as contiguous particle ranges
+	private void computeDensityPressure(CellSortedGrid grid, ParticleStore particles, int cellFrom, int cellTo) 
+	{
+		int cols = grid.cols();
+		int rows = grid.rows();
+		int[] cellStart = grid.cellStart();
+		int[] cellCount = grid.cellCount();
+		float[] x = particles.x;
+		float[] y = particles.y;
+		for (int c = cellFrom; c < cellTo; c++)
 		{
-			Particle pI = pair.F;
-			pI.rho = 0f;
-			for (int i = pair.S.F - 1; i < pair.S.F + 2; i++)
+			int cx = c % cols;
+			int cy = c / cols;
+			int end = cellStart[c] + cellCount[c];
+			for (int k = cellStart[c]; k < end; k++)
 			{
-				for (int j = pair.S.S - 1; j < pair.S.S + 2; j++)
+				float rho = 0f;
+				for (int ny = Math.max(cy - 1, 0); ny <= Math.min(cy + 1, rows - 1); ny++)
 				{
-					for (int idx : grid[i][j])
+					for (int nx = Math.max(cx - 1, 0); nx <= Math.min(cx + 1, cols - 1); nx++)
 					{
-						Particle pJ = particles.get(idx).F;
-						Vector2 rIJ = pJ.x.minus(pI.x);
-						float r2SQ = rIJ.dot(rIJ);
-						
-						if (r2SQ < HSQ)
+						int n = nx + ny * cols;
+						int nEnd = cellStart[n] + cellCount[n];
+						for (int idx = cellStart[n]; idx < nEnd; idx++)
 						{
-							pI.rho += MASS * POLY6 * Math.pow(HSQ - r2SQ, 3f);
+							float rX = x[idx] - x[k];
+							float rY = y[idx] - y[k];
+							float r2SQ = rX * rX + rY * rY;
+							
+							if (r2SQ < hSq)
+							{
+								float d = hSq - r2SQ;
+								rho += MASS * poly6 * d * d * d;
+							}
 						}
 					}
 				}
+				particles.rho[k] = rho;
+				particles.p[k] = GAS_CONST * (rho - REST_DENS);
 			}
-			pI.p = GAS_CONST * (pI.rho - REST_DENS);
 		}
 	}
 	
-	private static void computeForces(ArrayList<Integer>[][] grid, ArrayList<Pair<Particle, Pair<Integer, Integer>>> particles)
+	private void computeForces(CellSortedGrid grid, ParticleStore particles, int cellFrom, int cellTo)
 	{
-		for (int k = 0; k < particles.size(); k++)
+		int cols = grid.cols();
+		int rows = grid.rows();
+		int[] cellStart = grid.cellStart();
+		int[] cellCount = grid.cellCount();
+		float[] x = particles.x;
+		float[] y = particles.y;
+		float[] vx = particles.vx;
+		float[] vy = particles.vy;
+		float[] rho = particles.rho;
+		float[] p = particles.p;
+		for (int c = cellFrom; c < cellTo; c++)
 		{
-			Pair<Particle, Pair<Integer, Integer>> pair = particles.get(k);
-			Particle pI = pair.F;
-			Vector2 fPress = new Vector2();	//force from pressure
-			Vector2 fVisc = new Vector2();	//force from viscosity
-			for (int i = pair.S.F - 1; i < pair.S.F + 2; i++)
+			int cx = c % cols;
+			int cy = c / cols;
+			int end = cellStart[c] + cellCount[c];
+			for (int k = cellStart[c]; k < end; k++)
 			{
-				for (int j = pair.S.S - 1; j < pair.S.S + 2; j++)
+				float fPressX = 0f, fPressY = 0f;	//force from pressure
+				float fViscX = 0f, fViscY = 0f;		//force from viscosity
+				for (int ny = Math.max(cy - 1, 0); ny <= Math.min(cy + 1, rows - 1); ny++)
 				{
-					for (int idx : grid[i][j])
+					for (int nx = Math.max(cx - 1, 0); nx <= Math.min(cx + 1, cols - 1); nx++)
 					{
-						if (idx == k)
-							continue;
-						
-						Particle pJ = particles.get(idx).F;
-						Vector2 rIJ = pJ.x.minus(pI.x);
-						float r = rIJ.magnitude();
-						
-						if (r < H)
+						int n = nx + ny * cols;
+						int nEnd = cellStart[n] + cellCount[n];
+						for (int idx = cellStart[n]; idx < nEnd; idx++)
 						{
-							//pressure force contribution
-							fPress = fPress.plus(rIJ.normalized().scale(-1f).scale(
-									MASS * (pI.p + pJ.p) / (2f * pJ.rho) * SPIKY_GRAD * 
-									(float)Math.pow(H - r, 2f)));
+							if (idx == k)
+								continue;
 							
-							//pressure viscosity contribution
-							fVisc = fVisc.plus(pJ.v.minus(pI.v).scale(
-									VISC * MASS / pJ.rho * VISC_LAP * (H - r)));
+							float rX = x[idx] - x[k];
+							float rY = y[idx] - y[k];
+							float r = (float)Math.sqrt(rX * rX + rY * rY);
+							
+							if (r < h)
+							{
+								//pressure force contribution
+								if (r > 0f)
+								{
+									float press = -MASS * (p[k] + p[idx]) / (2f * rho[idx]) * spikyGrad * (h - r) * (h - r) / r;
+									fPressX += rX * press;
+									fPressY += rY * press;
+								}
+								
+								//pressure viscosity contribution
+								float visc = VISC * MASS / rho[idx] * viscLap * (h - r);
+								fViscX += (vx[idx] - vx[k]) * visc;
+								fViscY += (vy[idx] - vy[k]) * visc;
+							}
 						}
 					}
 				}
+				particles.fx[k] = fPressX + fViscX + G.x * rho[k];
+				particles.fy[k] = fPressY + fViscY + G.y * rho[k];
 			}
-			Vector2 fGrav = G.scale(pI.rho);
-			pI.f.set(fPress.plus(fVisc).plus(fGrav));
 		}			
 	}
 
-	private static void integrate(ArrayList<Pair<Particle, Pair<Integer, Integer>>> particles)
+	private void integrate(ParticleStore particles, int from, int to)
 	{
-		for (int i = 0; i < particles.size(); i++)
+		float[] x = particles.x;
+		float[] y = particles.y;
+		float[] vx = particles.vx;
+		float[] vy = particles.vy;
+		for (int i = from; i < to; i++)
 		{
-			Pair<Particle, Pair<Integer, Integer>> pair = particles.get(i);
-			Particle p = pair.F;
-			
 			//forward Euler integration
-			p.v = p.v.plus(p.f.scale(DT / p.rho));
-			moveParticle(i, p.x.plus(p.v.scale(DT)));
+			vx[i] += particles.fx[i] * (DT / particles.rho[i]);
+			vy[i] += particles.fy[i] * (DT / particles.rho[i]);
+			x[i] += vx[i] * DT;
+			y[i] += vy[i] * DT;
 			
 			//enforce boundary conditions
-			Vector2 newPos = new Vector2(p.x.x, p.x.y);
-			if (p.x.x - EPS < 0f)
+			if (x[i] - eps < 0f)
 			{
-				p.v.x *= BOUND_DAMPING;
-				newPos.x = EPS;
+				vx[i] *= BOUND_DAMPING;
+				x[i] = eps;
 			}
-			else if (p.x.x + EPS > Main.WIN_WIDTH)
+			else if (x[i] + eps > config.width)
 			{
-				p.v.x *= BOUND_DAMPING;
-				newPos.x = Main.WIN_WIDTH - EPS;
+				vx[i] *= BOUND_DAMPING;
+				x[i] = config.width - eps;
 			}
-			if (p.x.y - EPS < 0f)
+			if (y[i] - eps < 0f)
 			{
-				p.v.y *= BOUND_DAMPING;
-				newPos.y = EPS;
+				vy[i] *= BOUND_DAMPING;
+				y[i] = eps;
 			}
-			else if (p.x.y + EPS > Main.WIN_HEIGHT)
+			else if (y[i] + eps > config.height)
 			{
-				p.v.y *= BOUND_DAMPING;
-				newPos.y = Main.WIN_HEIGHT - EPS;
+				vy[i] *= BOUND_DAMPING;
+				y[i] = config.height - eps;
 			}
-			moveParticle(i, newPos);
 		}
 	}
 	
@@ -1,12 +1,16 @@
 package fluidsimulation.particlebased;
 
+import fluidsimulation.FieldFrame;
 import fluidsimulation.FluidSimulation;
-import game.Main;
+import fluidsimulation.Metrics;
+import fluidsimulation.SimulationConfig;
+import util.Checkpoint;
+import util.PixelRaster;
+import util.StateRandom;
 import util.Vector2;
 
+import java.io.IOException;
 import java.lang.Math;
-import java.util.ArrayList;
-import java.util.Random;
 import java.awt.Color;
 import java.awt.Graphics;
 
@@ -14,111 +18,132 @@ public class Lagrangian extends FluidSimulation
 {
 	
 	//solver parameters
-	private static Vector2 G = new Vector2(0f, 12000 * 9.8f);	//external forces (gravity)
-	private static float REST_DENS = 1000f;						//rest density
+	private static final Vector2 G = new Vector2(0f, 12000 * 9.8f);	//external forces (gravity)
+	private static final float REST_DENS = 1000f;						//rest density
 	//TODO: (below) ideal gas law only poorly enforces incompressibility
-	private static float GAS_CONST = 2000f;						//constant for equation of state
-	private static float H = 8f;								//kernel radius, particle diameter, max collision detection distance between particles
-	private static float HSQ = H * H;							//H^2 for optimization
-	private static float MASS = 65f;							//same mass of all particles
-	private static float VISC = 250f;							//viscosity constant
-	private static float DT = 0.0008f;							//integration timestep
+	private static final float GAS_CONST = 2000f;						//constant for equation of state
+	private float h;								//kernel radius, particle diameter, max collision detection distance between particles
+	private float hSq;							//h^2 for optimization
+	private static final float MASS = 65f;							//same mass of all particles
+	private static final float VISC = 250f;							//viscosity constant
+	private static final float DT = 0.0008f;							//integration timestep
+	private static final int SUBSTEPS = 4;						//integration steps per displayed frame, DT alone gives slow motion
 
 	//smoothing kernels defined in Müller and their gradients
-	private static float POLY6 = (float)(315f / (65f * Math.PI * Math.pow(H, 9f)));
-	private static float SPIKY_GRAD = (float)(-45f / (Math.PI * Math.pow(H, 6f)));
-	private static float VISC_LAP = (float)(45f / (Math.PI * Math.pow(H, 6f)));
+	private float poly6;
+	private float spikyGrad;
+	private float viscLap;
 
 	//simulation parameters
-	private static float EPS = H;						//boundary epsilon
+	private float eps;						//boundary epsilon
 	private static final float BOUND_DAMPING = -0.5f;	//must be negative for particles to reflect away from boundaries
 	
 	//TODO: implement surface tension
 	
 	//rendering fields
-	private static int PARTICLE_DIAMETER = (int)(H);
-	private static int PARTICLE_RADIUS = PARTICLE_DIAMETER / 2;
+	private int particleDiameter;
+	private int particleRadius;
+	private PixelRaster.Stamp splat;
+	private static final int PARTICLE_COLOR = Color.ORANGE.getRGB() & 0xffffff;
 	
-	private static class Particle
-	{
-		
-		private Vector2 x; //position
-		private Vector2 v;	//velocity
-		private Vector2 f;	//force
-		private float rho; //density
-		private float p;   //pressure
+	private ParticleStore particles;
 
-		public Particle(float posX, float posY, float vX, float vY)
-		{
-			this.x = new Vector2(posX, posY);
-			this.v = new Vector2(vX, vY);
-			this.f = new Vector2(0f, 0f);
-			this.rho = 0f;
-			this.p = 0f;
-		}
-		
-	}
-	
-	private static ArrayList<Particle> particles;
+	//neighbor search, rebuilt once per step
+	private NeighborSearch search;
+	private int[] neighbors = new int[0];
+
+	private StateRandom rand;
 
-	private Random rand;
+	private final Metrics.Phase neighborsPhase = metrics.phase("neighbors");
+	private final Metrics.Phase densityPhase = metrics.phase("density");
+	private final Metrics.Phase forcePhase = metrics.phase("force");
+	private final Metrics.Phase integratePhase = metrics.phase("integrate");
+	private final Metrics.Gauge particlesGauge = metrics.gauge("particles");
 
-	private static void addParticle(float posX, float posY, float vX, float vY)
+	private void addParticle(float posX, float posY, float vX, float vY)
 	{
-		particles.add(new Particle(posX, posY, vX, vY));
+		particles.add(posX, posY, vX, vY);
 	}
 
 	private void fillRandom(int count) // TODO: make abstract, add as GUI feature
 	{
-		rand = new Random();
+		rand = createRandom();
 		for (int i = 0; i < count; i++)
 		{
-			addParticle(rand.nextInt(Main.WIN_WIDTH), rand.nextInt(Main.WIN_HEIGHT), (rand.nextFloat() - 0.5f) * 2f * 10f, (rand.nextFloat() - 0.5f) * 2f * 10f);
+			addParticle(rand.nextInt(config.width), rand.nextInt(config.height), (rand.nextFloat() - 0.5f) * 2f * 10f, (rand.nextFloat() - 0.5f) * 2f * 10f);
 		}
 	}
 
 	private void spawnColumn(int posX, int posY, int count, int horizontalCount) // TODO: make abstract, add as GUI feature
 	{
-		rand = new Random();
+		rand = createRandom();
 		int i = 0;
 		while (i++ < count)
 		{
-			addParticle(posX + (i % horizontalCount) * PARTICLE_DIAMETER, posY + (int)(i / horizontalCount) * PARTICLE_DIAMETER, (rand.nextFloat() - 0.5f) * 10f, -rand.nextFloat() * 10f);
+			addParticle(posX + (i % horizontalCount) * particleDiameter, posY + (int)(i / horizontalCount) * particleDiameter, (rand.nextFloat() - 0.5f) * 10f, -rand.nextFloat() * 10f);
 		}
 	}
 	
 	@Override
 	protected void init(int sqrtParticlesAmount, int particlesAmount)
 	{
-		Lagrangian.H = (float)(Main.WIN_HEIGHT / sqrtParticlesAmount / 2f); //÷ 2f so that particles have space to move in window
-		Lagrangian.HSQ = H * H;
+		this.h = (float)(config.height / sqrtParticlesAmount / 2f); //÷ 2f so that particles have space to move in window
+		this.hSq = h * h;
 		
-		Lagrangian.POLY6 = (float)(315f / (65f * Math.PI * Math.pow(H, 9f)));
-		Lagrangian.SPIKY_GRAD = (float)(-45f / (Math.PI * Math.pow(H, 6f)));
-		Lagrangian.VISC_LAP = (float)(45f / (Math.PI * Math.pow(H, 6f)));
+		this.poly6 = (float)(315f / (65f * Math.PI * Math.pow(h, 9f)));
+		this.spikyGrad = (float)(-45f / (Math.PI * Math.pow(h, 6f)));
+		this.viscLap = (float)(45f / (Math.PI * Math.pow(h, 6f)));
 		
-		Lagrangian.EPS = H;
+		this.eps = h;
 		
-		Lagrangian.PARTICLE_DIAMETER = (int)(H);
-		Lagrangian.PARTICLE_RADIUS = PARTICLE_DIAMETER / 2;
+		this.particleDiameter = (int)(h);
+		this.particleRadius = particleDiameter / 2;
+		splat = PixelRaster.Stamp.oval(particleDiameter);
 		
-		particles = new ArrayList<Particle>();
+		particles = new ParticleStore(particlesAmount);
 		
 		//spawnRandom(particlesAmount) TODO: add as GUI option
-		spawnColumn(Main.WIN_WIDTH / 2, 100, particlesAmount, 10);
+		if (config.fill)
+			spawnColumn(config.width / 2, 100, particlesAmount, 10);
+		else
+			rand = createRandom();
 	}
 	
+	public Lagrangian(SimulationConfig config)
+	{
+		this(config, new CellSortedGrid(config.width, config.height));
+	}
+
+	public Lagrangian(SimulationConfig config, NeighborSearch neighborSearch)
+	{
+		super(config);
+		this.search = neighborSearch;
+		init(config.size, config.particlesAmount());
+	}
+
 	public Lagrangian(int sqrtParticlesAmount, int particles)
 	{
-		init(sqrtParticlesAmount, particles);
+		this(new SimulationConfig().size(sqrtParticlesAmount).particles(particles));
+	}
+
+	public Lagrangian(int sqrtParticlesAmount, int particles, NeighborSearch neighborSearch)
+	{
+		this(new SimulationConfig().size(sqrtParticlesAmount).particles(particles), neighborSearch);
 	}
 	
 	@Override
-	public void update()
+	protected void step()
 	{
+		long lap = metrics.now();
+		rebuildNeighborSearch(particles);
+		lap = neighborsPhase.lap(lap);
 		computeDensityPressure(particles);
-		computeForces(particles);
-		integrate(particles);
+		lap = densityPhase.lap(lap);
+		forcePass();
+		lap = forcePhase.lap(lap);
+		integratePass();
+		integratePhase.lap(lap);
+		particlesGauge.set(particles.count);
 	}
 	
 	@Override
@@ -128,106 +153,241 @@ public class Lagrangian extends FluidSimulation
 	}
 
 	@Override
-	public void render(Graphics g)
+	public void addFluid(int[] mouseX, int[] mouseY, int count)
 	{
-		g.setColor(Color.ORANGE);
-		for (Particle p : particles)
+		particles.ensureCapacity(particles.count + count); //grow once for the whole batch
+		for (int k = 0; k < count; k++)
 		{
-			int x = (int)(p.x.x) - PARTICLE_RADIUS;
-			int y = (int)(p.x.y) - PARTICLE_RADIUS;
-			g.fillOval(x, y, PARTICLE_DIAMETER, PARTICLE_DIAMETER);
+			addParticle(mouseX[k], mouseY[k], (rand.nextFloat() - 0.5f) * 2f * 10f, (rand.nextFloat() - 0.5f) * 2f * 10f);
+		}
+	}
+
+	@Override
+	public int substepsPerFrame()
+	{
+		return SUBSTEPS;
+	}
+
+	@Override
+	public void exportFields(FieldFrame frame)
+	{
+		int count = particles.count;
+		System.arraycopy(particles.x, 0, frame.field("x", count, 1), 0, count);
+		System.arraycopy(particles.y, 0, frame.field("y", count, 1), 0, count);
+	}
+
+	@Override
+	protected void writeState(Checkpoint.Writer out) throws IOException
+	{
+		particles.write(out);
+		out.putRandom(rand);
+	}
+
+	@Override
+	protected void readState(Checkpoint.Reader in) throws IOException
+	{
+		particles.read(in);
+		rand = in.getRandom();
+	}
+
+	@Override
+	protected Snapshot createSnapshot()
+	{
+		return new Frame();
+	}
+
+	//particle positions only, that is all render() needs
+	private class Frame extends Snapshot
+	{
+		private int count;
+		private float[] x = new float[0];
+		private float[] y = new float[0];
+		private final PixelRaster raster = new PixelRaster(config.width, config.height);
+
+		@Override
+		protected void capture()
+		{
+			count = particles.count;
+			if (x.length < count)
+			{
+				x = new float[particles.x.length];
+				y = new float[particles.y.length];
+			}
+			System.arraycopy(particles.x, 0, x, 0, count);
+			System.arraycopy(particles.y, 0, y, 0, count);
+		}
+
+		@Override
+		public void render(Graphics g)
+		{
+			raster.draw(this::drawRows);
+			raster.blit(g);
+		}
+
+		private void drawRows(int yFrom, int yTo)
+		{
+			for (int i = 0; i < count; i++)
+			{
+				int py = (int)(y[i]) - particleRadius;
+				if (py >= yTo || py + splat.height <= yFrom) continue;
+				int px = (int)(x[i]) - particleRadius;
+				raster.stamp(splat, px, py, PARTICLE_COLOR, yFrom, yTo);
+			}
 		}
 	}
 
 	/*--------------------------------**  util  **--------------------------------*/
 
+	//phases of update(), package-private for NeighborSearchCheck and SphKernelBenchmark
+	void densityPass()
+	{
+		rebuildNeighborSearch(particles);
+		computeDensityPressure(particles);
+	}
+
+	void forcePass()
+	{
+		computeForces(particles);
+	}
+
+	void integratePass()
+	{
+		integrate(particles);
+	}
+
+	void useNeighborSearch(NeighborSearch neighborSearch)
+	{
+		this.search = neighborSearch;
+	}
+
+	int particleCount()
+	{
+		return particles.count;
+	}
+
+	float density(int i)
+	{
+		return particles.rho[i];
+	}
+
+	private void rebuildNeighborSearch(ParticleStore particles)
+	{
+		if (neighbors.length < particles.capacity())
+			neighbors = new int[particles.capacity()];
+		search.rebuild(particles.x, particles.y, particles.count, h);
+	}
+
 	//Computes densities and uses that to compute pressure
-	//O(n^2), sum up densities within H radius of current particle, use ideal gas law for equation of state for pressure -> summed density	
-	private static void computeDensityPressure(ArrayList<Particle> particles) 
+	//O(n*k), sum up densities within h radius of current particle, use ideal gas law for equation of state for pressure -> summed density
+	private void computeDensityPressure(ParticleStore particles) 
 	{
-		for (Particle pI : particles)
+		float[] x = particles.x;
+		float[] y = particles.y;
+		for (int i = 0; i < particles.count; i++)
 		{
-			pI.rho = 0f;
-			for (Particle pJ : particles)
+			float rho = 0f;
+			int n = search.gather(x[i], y[i], neighbors);
+			for (int k = 0; k < n; k++)
 			{
-				Vector2 rIJ = pJ.x.minus(pI.x);
-				float r2SQ = rIJ.dot(rIJ);
+				int j = neighbors[k];
+				float rX = x[j] - x[i];
+				float rY = y[j] - y[i];
+				float r2SQ = rX * rX + rY * rY;
 				
-				if (r2SQ < HSQ)
+				if (r2SQ < hSq)
 				{
-					pI.rho += MASS * POLY6 * Math.pow(HSQ - r2SQ, 3f);
+					float d = hSq - r2SQ;
+					rho += MASS * poly6 * d * d * d;
 				}
 			}
-			pI.p = GAS_CONST * (pI.rho - REST_DENS);
+			particles.rho[i] = rho;
+			particles.p[i] = GAS_CONST * (rho - REST_DENS);
 		}
 	}
 	
 	//Computes forces on each particle through density and pressure
-	private static void computeForces(ArrayList<Particle> particles)
+	private void computeForces(ParticleStore particles)
 	{
-		for (Particle pI : particles)
+		float[] x = particles.x;
+		float[] y = particles.y;
+		float[] vx = particles.vx;
+		float[] vy = particles.vy;
+		float[] rho = particles.rho;
+		float[] p = particles.p;
+		for (int i = 0; i < particles.count; i++)
 		{
-			Vector2 fPress = new Vector2();	//force from pressure
-			Vector2 fVisc = new Vector2();	//force from viscosity
-			for (Particle pJ : particles)
+			float fPressX = 0f, fPressY = 0f;	//force from pressure
+			float fViscX = 0f, fViscY = 0f;		//force from viscosity
+			int n = search.gather(x[i], y[i], neighbors);
+			for (int k = 0; k < n; k++)
 			{
-				if (pI == pJ)
+				int j = neighbors[k];
+				if (i == j)
 					continue;
 				
-				Vector2 rIJ = pJ.x.minus(pI.x);
-				float r = rIJ.magnitude();
+				float rX = x[j] - x[i];
+				float rY = y[j] - y[i];
+				float r = (float)Math.sqrt(rX * rX + rY * rY);
 				
-				if (r < H)
+				if (r < h)
 				{
 					//pressure force contribution
-					fPress = fPress.plus(rIJ.normalized().scale(-1f).scale(
-							MASS * (pI.p + pJ.p) / (2f * pJ.rho) * SPIKY_GRAD * 
-							(float)Math.pow(H - r, 2f)));
-					//above equivalent to: fPress += -rIJ.normalized() * MASS * (pI.p + pJ.p) /
-					//(2f * pJ.rho) * SPIKY_GRAD * Math.pow(H - r, 2f);
+					//fPress += -rIJ.normalized() * MASS * (pI.p + pJ.p) / (2f * pJ.rho) * spikyGrad * (h - r)^2
+					if (r > 0f)
+					{
+						float press = -MASS * (p[i] + p[j]) / (2f * rho[j]) * spikyGrad * (h - r) * (h - r) / r;
+						fPressX += rX * press;
+						fPressY += rY * press;
+					}
 					
 					//pressure viscosity contribution
-					fVisc = fVisc.plus(pJ.v.minus(pI.v).scale(
-							VISC * MASS / pJ.rho * VISC_LAP * (H - r)));
-					//above equivalent to: fVisc += VISC * MASS * (pJ.v - pI.v) / 
-					//pJ.rho * VISC_LAP * (H - r);
+					//fVisc += VISC * MASS * (pJ.v - pI.v) / pJ.rho * viscLap * (h - r)
+					float visc = VISC * MASS / rho[j] * viscLap * (h - r);
+					fViscX += (vx[j] - vx[i]) * visc;
+					fViscY += (vy[j] - vy[i]) * visc;
 				}
 			}
-			Vector2 fGrav = G.scale(pI.rho);
-			pI.f.set(fPress.plus(fVisc).plus(fGrav));
+			particles.fx[i] = fPressX + fViscX + G.x * rho[i];
+			particles.fy[i] = fPressY + fViscY + G.y * rho[i];
 		}			
 	}
 
 	//Calculates acceleration and updates particle positions
 	//TODO: could use leapfrog method implicit integrator (more stable for oscillatory systems)
-	private static void integrate(ArrayList<Particle> particles)
+	private void integrate(ParticleStore particles)
 	{
-		for (Particle p : particles)
+		float[] x = particles.x;
+		float[] y = particles.y;
+		float[] vx = particles.vx;
+		float[] vy = particles.vy;
+		for (int i = 0; i < particles.count; i++)
 		{
 			//forward Euler integration
-			p.v = p.v.plus(p.f.scale(DT / p.rho));
-			p.x = p.x.plus(p.v.scale(DT));
+			vx[i] += particles.fx[i] * (DT / particles.rho[i]);
+			vy[i] += particles.fy[i] * (DT / particles.rho[i]);
+			x[i] += vx[i] * DT;
+			y[i] += vy[i] * DT;
 			
 			//enforce boundary conditions
-			if (p.x.x - EPS < 0f)
+			if (x[i] - eps < 0f)
 			{
-				p.v.x *= BOUND_DAMPING;
-				p.x.x = EPS;
+				vx[i] *= BOUND_DAMPING;
+				x[i] = eps;
 			}
-			else if (p.x.x + EPS > Main.WIN_WIDTH)
+			else if (x[i] + eps > config.width)
 			{
-				p.v.x *= BOUND_DAMPING;
-				p.x.x = Main.WIN_WIDTH - EPS;
+				vx[i] *= BOUND_DAMPING;
+				x[i] = config.width - eps;
 			}
-			if (p.x.y - EPS < 0f)
+			if (y[i] - eps < 0f)
 			{
-				p.v.y *= BOUND_DAMPING;
-				p.x.y = EPS;
+				vy[i] *= BOUND_DAMPING;
+				y[i] = eps;
 			}
-			else if (p.x.y + EPS > Main.WIN_HEIGHT)
+			else if (y[i] + eps > config.height)
 			{
-				p.v.y *= BOUND_DAMPING;
-				p.x.y = Main.WIN_HEIGHT - EPS;
+				vy[i] *= BOUND_DAMPING;
+				y[i] = config.height - eps;
 			}
 		}
 	}
@@ -0,0 +1,15 @@
+package fluidsimulation.particlebased;
+
+//Finds candidate neighbors of a point for the SPH density and force passes
+//candidates are all particles in the 3x3 block of cells around the point, so the caller still has to check distances
+public interface NeighborSearch
+{
+
+	//rebuilds the structure from current particle positions, called once per step before any gather
+	void rebuild(float[] x, float[] y, int count, float cellSize);
+
+	//writes candidate particle indices into out and returns how many were written
+	//out must be able to hold as many indices as there are particles
+	int gather(float posX, float posY, int[] out);
+
+}
@@ -0,0 +1,63 @@
+package fluidsimulation.particlebased;
+
+import game.Main;
+
+//Checks that the grid based neighbor searches give the same densities as the brute force O(n^2) path
+//run with: java fluidsimulation.particlebased.NeighborSearchCheck [sqrtParticlesAmount] [steps]
+public class NeighborSearchCheck
+{
+
+	private static final float TOLERANCE = 1e-4f; //relative, summation order differs between searches
+
+	public static void main(String[] args)
+	{
+		int sqrtParticlesAmount = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+		int steps = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+		NeighborSearch reference = new BruteForceSearch();
+		NeighborSearch[] candidates = {
+			new UniformGridHash(),
+			new CellSortedGrid(Main.WIN_WIDTH, Main.WIN_HEIGHT)
+		};
+
+		Lagrangian simulation = new Lagrangian(sqrtParticlesAmount, sqrtParticlesAmount * sqrtParticlesAmount, reference);
+		float[] expected = new float[0];
+		float worst = 0f;
+
+		for (int step = 0; step < steps; step++)
+		{
+			int count = simulation.particleCount();
+			if (expected.length < count)
+				expected = new float[count];
+
+			simulation.useNeighborSearch(reference);
+			simulation.densityPass();
+			for (int i = 0; i < count; i++)
+			{
+				expected[i] = simulation.density(i);
+			}
+
+			for (NeighborSearch candidate : candidates)
+			{
+				simulation.useNeighborSearch(candidate);
+				simulation.densityPass();
+				for (int i = 0; i < count; i++)
+				{
+					float error = Math.abs(simulation.density(i) - expected[i]) / Math.max(Math.abs(expected[i]), 1e-12f);
+					worst = Math.max(worst, error);
+					if (error > TOLERANCE)
+					{
+						System.out.println("FAILED " + candidate.getClass().getSimpleName() + " step " + step + " particle " + i
+								+ ": expected " + expected[i] + ", got " + simulation.density(i));
+						System.exit(1);
+					}
+				}
+			}
+
+			simulation.useNeighborSearch(reference);
+			simulation.update();
+		}
+		System.out.println("OK " + steps + " steps, max relative density error " + worst);
+	}
+
+}
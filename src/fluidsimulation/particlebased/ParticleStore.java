@@ -0,0 +1,124 @@
+package fluidsimulation.particlebased;
+
+import util.Checkpoint;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+//Structure of arrays particle container, particle i is (x[i], y[i]), (vx[i], vy[i]), ...
+//arrays only grow (doubling), so steady state steps do not allocate
+public class ParticleStore
+{
+
+	public float[] x;	//position
+	public float[] y;
+	public float[] vx;	//velocity
+	public float[] vy;
+	public float[] fx;	//force
+	public float[] fy;
+	public float[] rho;	//density
+	public float[] p;	//pressure
+
+	public int count;
+
+	private float[] scratch; //spare array swapped in by permute
+
+	public ParticleStore(int capacity)
+	{
+		capacity = Math.max(capacity, 16);
+		this.x = new float[capacity];
+		this.y = new float[capacity];
+		this.vx = new float[capacity];
+		this.vy = new float[capacity];
+		this.fx = new float[capacity];
+		this.fy = new float[capacity];
+		this.rho = new float[capacity];
+		this.p = new float[capacity];
+		this.count = 0;
+		this.scratch = new float[capacity];
+	}
+
+	public int capacity()
+	{
+		return x.length;
+	}
+
+	public void ensureCapacity(int capacity)
+	{
+		if (capacity <= x.length)
+			return;
+		capacity = Math.max(capacity, x.length * 2);
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		vx = Arrays.copyOf(vx, capacity);
+		vy = Arrays.copyOf(vy, capacity);
+		fx = Arrays.copyOf(fx, capacity);
+		fy = Arrays.copyOf(fy, capacity);
+		rho = Arrays.copyOf(rho, capacity);
+		p = Arrays.copyOf(p, capacity);
+		scratch = new float[capacity];
+	}
+
+	//returns index of the new particle
+	public int add(float posX, float posY, float vX, float vY)
+	{
+		ensureCapacity(count + 1);
+		int i = count++;
+		x[i] = posX;
+		y[i] = posY;
+		vx[i] = vX;
+		vy[i] = vY;
+		fx[i] = 0f;
+		fy[i] = 0f;
+		rho[i] = 0f;
+		p[i] = 0f;
+		return i;
+	}
+
+	//reorders particles so that new particle k is old particle order[k]
+	public void permute(int[] order)
+	{
+		x = permute(x, order);
+		y = permute(y, order);
+		vx = permute(vx, order);
+		vy = permute(vy, order);
+		fx = permute(fx, order);
+		fy = permute(fy, order);
+		rho = permute(rho, order);
+		p = permute(p, order);
+	}
+
+	private float[] permute(float[] values, int[] order)
+	{
+		float[] permuted = scratch;
+		for (int k = 0; k < count; k++)
+		{
+			permuted[k] = values[order[k]];
+		}
+		scratch = values;
+		return permuted;
+	}
+
+	//positions and velocities, force, density and pressure are recomputed by every step before they are read
+	public void write(Checkpoint.Writer out)
+	{
+		out.putInt(count);
+		for (float[] field : new float[][] { x, y, vx, vy })
+			out.putFloats(field, count);
+	}
+
+	public void read(Checkpoint.Reader in) throws IOException
+	{
+		int stored = in.getInt();
+		ensureCapacity(stored);
+		count = stored;
+		for (float[] field : new float[][] { x, y, vx, vy })
+			in.getFloats(field, count);
+	}
+
+	public void clear()
+	{
+		count = 0;
+	}
+
+}
@@ -0,0 +1,61 @@
+package fluidsimulation.particlebased;
+
+import fluidsimulation.SimulationConfig;
+
+//Thread scaling of the fork/join GridLagrangian step, from 1 thread up to the core count (doubling)
+//also checks that every thread count reaches bit-identical particle positions from the same seed
+//run with: java fluidsimulation.particlebased.ScalingBenchmark [sqrtParticlesAmount] [steps] [maxThreads]
+public class ScalingBenchmark
+{
+
+	private static final long SEED = 42;
+
+	public static void main(String[] args)
+	{
+		int sqrtParticlesAmount = args.length > 0 ? Integer.parseInt(args[0]) : 128;
+		int steps = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		int particlesAmount = sqrtParticlesAmount * sqrtParticlesAmount;
+
+		System.out.println("GridLagrangian, " + particlesAmount + " particles, " + steps + " steps");
+		System.out.println("threads\tms/step\tspeedup\tchecksum");
+
+		double baseline = 0;
+		long expected = 0;
+		boolean deterministic = true;
+		for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads))
+		{
+			SimulationConfig config = new SimulationConfig().size(sqrtParticlesAmount).particles(particlesAmount).threads(threads).seed(SEED);
+			GridLagrangian simulation = new GridLagrangian(config.copy());
+			for (int i = 0; i < steps / 4; i++) //warm up
+			{
+				simulation.update();
+			}
+			simulation.dispose();
+
+			simulation = new GridLagrangian(config.copy());
+			long start = System.nanoTime();
+			for (int i = 0; i < steps; i++)
+			{
+				simulation.update();
+			}
+			double msPerStep = (System.nanoTime() - start) / 1e6 / steps;
+			long checksum = simulation.checksum();
+			simulation.dispose();
+
+			if (threads == 1)
+			{
+				baseline = msPerStep;
+				expected = checksum;
+			}
+			deterministic &= checksum == expected;
+			System.out.printf("%d\t%.3f\t%.2fx\t%016x%n", threads, msPerStep, baseline / msPerStep, checksum);
+			if (threads >= maxThreads)
+				break;
+		}
+		System.out.println(deterministic ? "all thread counts match" : "MISMATCH between thread counts");
+		if (!deterministic)
+			System.exit(1);
+	}
+
+}
@@ -0,0 +1,33 @@
+package fluidsimulation.particlebased;
+
+import benchmark.Harness;
+import fluidsimulation.SimulationConfig;
+
+import java.util.Map;
+
+//Lagrangian and GridLagrangian passes for benchmark.KernelBenchmark, each engine is created from the harness seed
+//integrate moves particles, so every pass is measured on the state the previous ops left
+public class SphKernelBenchmark
+{
+
+	public static void run(Harness harness, int size)
+	{
+		Map<String, String> params = Harness.params("sqrtParticlesAmount", Integer.toString(size));
+
+		Lagrangian lagrangian = new Lagrangian(new SimulationConfig().size(size).particles(size * size).seed(harness.seed()));
+		lagrangian.densityPass(); //forces need densities of the current positions
+		harness.measure("Lagrangian", "density", params, lagrangian::densityPass);
+		harness.measure("Lagrangian", "force", params, lagrangian::forcePass);
+		harness.measure("Lagrangian", "integrate", params, lagrangian::integratePass);
+
+		GridLagrangian grid = new GridLagrangian(new SimulationConfig().size(size).particles(size * size).seed(harness.seed()));
+		grid.gridPass();
+		grid.densityPass();
+		harness.measure("GridLagrangian", "grid", params, grid::gridPass);
+		harness.measure("GridLagrangian", "density", params, grid::densityPass);
+		harness.measure("GridLagrangian", "force", params, grid::forcePass);
+		harness.measure("GridLagrangian", "integrate", params, grid::integratePass);
+		grid.dispose();
+	}
+
+}
@@ -0,0 +1,78 @@
+package fluidsimulation.particlebased;
+
+import java.util.Arrays;
+
+//Uniform grid of cellSize cells hashed into a fixed table, works for unbounded domains
+//each bucket is a singly linked list threaded through next[], so rebuilding is O(n) with no allocation once warmed up
+public class UniformGridHash implements NeighborSearch
+{
+
+	private float cellSize;
+	private int count;
+
+	private int[] head = new int[0];	//first particle of each bucket, -1 if empty
+	private int[] next = new int[0];	//next particle in the same bucket, -1 at end of chain
+	private int[] cellX = new int[0];	//cell coordinates of each particle, used to reject hash collisions
+	private int[] cellY = new int[0];
+	private int mask;
+
+	private static int hash(int cx, int cy)
+	{
+		return (cx * 73856093) ^ (cy * 19349663);
+	}
+
+	@Override
+	public void rebuild(float[] x, float[] y, int count, float cellSize)
+	{
+		this.cellSize = cellSize;
+		this.count = count;
+
+		if (next.length < count)
+		{
+			next = new int[count];
+			cellX = new int[count];
+			cellY = new int[count];
+		}
+		int tableSize = Integer.highestOneBit(Math.max(count, 8)) * 2; //power of two, at least 2 buckets per particle
+		if (head.length != tableSize)
+		{
+			head = new int[tableSize];
+			mask = tableSize - 1;
+		}
+		Arrays.fill(head, -1);
+
+		for (int i = 0; i < count; i++)
+		{
+			int cx = (int)Math.floor(x[i] / cellSize);
+			int cy = (int)Math.floor(y[i] / cellSize);
+			int bucket = hash(cx, cy) & mask;
+			cellX[i] = cx;
+			cellY[i] = cy;
+			next[i] = head[bucket];
+			head[bucket] = i;
+		}
+	}
+
+	@Override
+	public int gather(float posX, float posY, int[] out)
+	{
+		int cx = (int)Math.floor(posX / cellSize);
+		int cy = (int)Math.floor(posY / cellSize);
+		int n = 0;
+		for (int dy = -1; dy <= 1; dy++)
+		{
+			for (int dx = -1; dx <= 1; dx++)
+			{
+				int nx = cx + dx;
+				int ny = cy + dy;
+				for (int idx = head[hash(nx, ny) & mask]; idx != -1; idx = next[idx])
+				{
+					if (cellX[idx] == nx && cellY[idx] == ny)
+						out[n++] = idx;
+				}
+			}
+		}
+		return n;
+	}
+
+}
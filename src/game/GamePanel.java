@@ -1,10 +1,15 @@
 package game;
 
 import java.awt.Color;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
+import java.util.Locale;
 
 import javax.swing.JPanel;
 
+import fluidsimulation.FluidSimulation;
+import fluidsimulation.Metrics;
+
 public class GamePanel extends JPanel {
 	
 	@Override
@@ -12,7 +17,43 @@ public class GamePanel extends JPanel {
 		g.setColor(Color.BLACK);
 		g.fillRect(0, 0, Main.WIN_WIDTH, Main.WIN_HEIGHT);
 
-		GameState.simulation.render(g);
+		//never the live state, the simulation thread may be halfway through a step
+		FluidSimulation.Snapshot snapshot = GameState.simulation.latest();
+		if (snapshot != null)
+		{
+			snapshot.render(g);
+			if (GameState.showMetrics && snapshot.metrics() != null)
+			{
+				drawMetrics(g, snapshot.metrics());
+			}
+		}
+	}
+
+	private static final Color OVERLAY = new Color(0, 0, 0, 160);
+
+	//one line per phase and gauge: last frame, median and 99th percentile since the engine started
+	private void drawMetrics(Graphics g, Metrics.Summary metrics)
+	{
+		FontMetrics font = g.getFontMetrics();
+		int lineHeight = font.getHeight();
+		String[] lines = new String[metrics.count() + 1];
+		lines[0] = GameState.engine + "   last / p50 / p99";
+		int width = font.stringWidth(lines[0]);
+		for (int i = 0; i < metrics.count(); i++)
+		{
+			String unit = metrics.unit(i);
+			String format = unit.equals("ms") ? "%s: %.3f / %.3f / %.3f ms" : "%s: %.4g / %.4g / %.4g %s";
+			lines[i + 1] = String.format(Locale.ROOT, format, metrics.name(i), metrics.last(i), metrics.p50(i), metrics.p99(i), unit);
+			width = Math.max(width, font.stringWidth(lines[i + 1]));
+		}
+
+		g.setColor(OVERLAY);
+		g.fillRect(8, 8, width + 12, lines.length * lineHeight + 8);
+		g.setColor(Color.WHITE);
+		for (int i = 0; i < lines.length; i++)
+		{
+			g.drawString(lines[i], 14, 12 + font.getAscent() + i * lineHeight);
+		}
 	}
 
 }
\ No newline at end of file
@@ -1,46 +1,108 @@
 package game;
 
+import fluidsimulation.EngineRegistry;
 import fluidsimulation.FluidSimulation;
-import fluidsimulation.gridbased.*;
-import fluidsimulation.particlebased.*;
+import fluidsimulation.SimulationConfig;
 
+import java.awt.event.KeyEvent;
+import java.awt.event.KeyListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseMotionListener;
 import java.awt.event.MouseEvent;
 
-import java.util.ArrayList;
+import java.util.List;
 
-public class GameState extends MouseAdapter implements MouseMotionListener
+import util.InjectionQueue;
+
+public class GameState extends MouseAdapter implements MouseMotionListener, KeyListener
 {
 
-	public static FluidSimulation simulation;
+	public static final String DEFAULT_ENGINE = "QuadtreeEulerian";
+
+	//replaced only on the simulation thread, read by the EDT for painting
+	public static volatile FluidSimulation simulation;
+	public static volatile String engine;
+	private static volatile String requestedEngine = null;	//set by the number keys, applied before the next frame
+	public static volatile boolean showMetrics = false;	//toggled by M, the panel draws the metrics overlay while set
 	
-	//interactivity fields
-	private static ArrayList<Integer> mouseX;
-	private static ArrayList<Integer> mouseY;
+	//interactivity fields, filled on the EDT (or by anything else that injects) and drained on the simulation thread
+	public static final InjectionQueue injections = new InjectionQueue(4096);
+	private static final int[] batchX = new int[injections.capacity()];
+	private static final int[] batchY = new int[injections.capacity()];
 	
 	public GameState()
 	{
-		// Eulerian, QuadtreeEulerian, Lagrangian, GridLagrangian TODO: control type with GUI
-		simulation = new QuadtreeEulerian(Main.SQRT_PARTICLES_AMOUNT, Main.PARTICLES_AMOUNT);
-		
-		mouseX = new ArrayList<>();
-		mouseY = new ArrayList<>();
+		engine = DEFAULT_ENGINE;
+		simulation = EngineRegistry.create(engine, config());
 	}
 	
-	public void update()
+	//mouse input since the last frame, run by the Scheduler before the substeps of each frame
+	public void applyInput()
 	{
-		for (int i = 0; i < mouseX.size(); i++)
+		String requested = requestedEngine;
+		if (requested != null)
+		{
+			requestedEngine = null;
+			switchEngine(requested);
+		}
+		if (simulation.isCapturingMetrics() != showMetrics)
+		{
+			simulation.captureMetrics(showMetrics);
+			if (showMetrics)
+			{
+				simulation.metrics().setEnabled(true);	//stays on once shown, so the percentiles keep their history
+			}
+		}
+
+		//batch arrays hold the whole queue, so one drain takes everything offered so far
+		int count = injections.drain(batchX, batchY);
+		if (count > 0)
 		{
-			int x = mouseX.get(i);
-			int y = mouseY.get(i);
-			simulation.addFluid(x, y);
+			simulation.addFluid(batchX, batchY, count);
 		}
-		mouseX.clear();
-		mouseY.clear();
-		simulation.update();
 	}
 	
+	private static SimulationConfig config()
+	{
+		return new SimulationConfig().size(Main.SQRT_PARTICLES_AMOUNT).particles(Main.PARTICLES_AMOUNT);
+	}
+
+	//runs on the simulation thread, the new engine publishes once up front so the panel never paints an empty frame
+	private static void switchEngine(String name)
+	{
+		if (name.equals(engine))
+			return;
+		FluidSimulation previous = simulation;
+		FluidSimulation next = EngineRegistry.create(name, config());
+		next.publish();
+		simulation = next;
+		engine = name;
+		previous.dispose();
+	}
+
+	//1, 2, 3, ... select the engines in registry order, M toggles the metrics overlay
+	@Override
+	public void keyPressed(KeyEvent e)
+	{
+		if (e.getKeyCode() == KeyEvent.VK_M)
+		{
+			showMetrics = !showMetrics;
+			return;
+		}
+		List<String> names = EngineRegistry.names();
+		int index = e.getKeyChar() - '1';
+		if (index >= 0 && index < names.size())
+		{
+			requestedEngine = names.get(index);
+		}
+	}
+
+	@Override
+	public void keyTyped(KeyEvent e) {}
+
+	@Override
+	public void keyReleased(KeyEvent e) {}
+
 	@Override
 	public void mousePressed(MouseEvent e) {}
 
@@ -49,8 +111,7 @@ public class GameState extends MouseAdapter implements MouseMotionListener
 	{
 		int x = e.getX() + Main.MOUSE_OFFSET.x;
 		int y = e.getY() + Main.MOUSE_OFFSET.y;
-		mouseX.add(x);
-		mouseY.add(y);
+		injections.offer(x, y);
 	}
 
 	@Override
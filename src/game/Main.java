@@ -3,6 +3,9 @@ package game;
 import java.awt.Dimension;
 import java.awt.Point;
 import javax.swing.JFrame;
+import javax.swing.Timer;
+
+import fluidsimulation.EngineRegistry;
 
 public class Main
 {
@@ -15,10 +18,14 @@ public class Main
 	public static final int WIN_WIDTH = 512;
 	public static final int WIN_HEIGHT = 512;
 
+	public static final int UPDATES_PER_SECOND = 30;	//simulated frames per second, each one is substepsPerFrame() updates
+	public static final int FRAMES_PER_SECOND = 60;
+	public static final int MAX_CATCH_UP = 3;			//late frames run back to back before the rest are dropped
+
 	public static final Point MOUSE_OFFSET = new Point(0, -28);
 	private static final Point WIN_SIZE_OFFSET = new Point(0, 28);
 	
-	public static void main(String args[]) throws InterruptedException {
+	public static void main(String args[]) {
 		/*// Eulerian, QuadtreeEulerian, Lagrangian, GridLagrangian // TODO: replace this code with new GUI code for runtime performance analysis
 		simulation = new Lagrangian(Main.SQRT_PARTICLES_AMOUNT, Main.PARTICLES_AMOUNT);
 
@@ -38,6 +45,7 @@ public class Main
 		JFrame frame = new JFrame("Fluid Simulation");
 		frame.addMouseListener(state);
 		frame.addMouseMotionListener(state);
+		frame.addKeyListener(state);
 
 		GamePanel game = new GamePanel();
 		frame.add(game);
@@ -50,18 +58,16 @@ public class Main
 
 		frame.setVisible(true);
 
-		while (true)
-		{
-			long startTime = System.currentTimeMillis();
+		//-Dsubsteps=n overrides the engine's own substeps per frame
+		int substeps = Integer.getInteger("substeps", 0);
+		Scheduler scheduler = new Scheduler(() -> GameState.simulation, state::applyInput, UPDATES_PER_SECOND, substeps, MAX_CATCH_UP);
 
-			state.update();
-			frame.repaint();
+		//the EDT repaints from the latest published snapshot, this thread only steps and publishes
+		new Timer(1000 / FRAMES_PER_SECOND, e -> frame.repaint()).start();
+		new Timer(1000, e -> frame.setTitle(String.format("Fluid Simulation - %s (keys 1-%d), sim/wall %.2f, %d missed, %d dropped",
+				GameState.engine, EngineRegistry.names().size(), scheduler.simToWallRatio(), scheduler.missedDeadlines(), scheduler.droppedFrames()))).start();
 
-			long elapsedTime = System.currentTimeMillis() - startTime;
-
-			long dt = Math.max(0, 1000 / 30 - elapsedTime);
-			Thread.sleep(dt);
-		}
+		scheduler.run();
 	}
 	
 }
\ No newline at end of file
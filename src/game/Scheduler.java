@@ -0,0 +1,127 @@
+package game;
+
+import fluidsimulation.FluidSimulation;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+//Fixed timestep loop: every frame period the simulation advances by one frame, i.e. input once then a fixed number of
+//update() substeps, and the result is published once the loop has caught up. A slow frame is made up by running frames
+//back to back, at most maxCatchUp of them, anything further behind is dropped so the loop cannot spiral.
+public class Scheduler
+{
+
+	private final Supplier<FluidSimulation> simulation;	//read again every frame, so the engine can be swapped by the input
+	private final Runnable input;	//runs once per frame, before the substeps
+	private final long frameNanos;
+	private final int substeps;	//0 -> substepsPerFrame() of the current engine
+	private final int maxCatchUp;
+
+	//accounting, written by the simulation thread only
+	private volatile long frames = 0;
+	private volatile long updates = 0;
+	private volatile long missedDeadlines = 0;	//frames that started a full period or more after their deadline
+	private volatile long droppedFrames = 0;	//frames skipped past the catch-up limit, their sim time is lost
+	private volatile long lastFrameNanos = 0;	//cost of the last frame, input and substeps
+	private volatile long simNanos = 0;
+	private volatile long startNanos = 0;
+
+	public Scheduler(Supplier<FluidSimulation> simulation, Runnable input, int framesPerSecond, int substeps, int maxCatchUp)
+	{
+		this.simulation = simulation;
+		this.input = input;
+		this.frameNanos = 1_000_000_000L / framesPerSecond;
+		this.substeps = Math.max(0, substeps);
+		this.maxCatchUp = Math.max(1, maxCatchUp);
+	}
+
+	//runs on the calling thread until it is interrupted
+	public void run()
+	{
+		startNanos = System.nanoTime();
+		long deadline = startNanos;
+		while (!Thread.currentThread().isInterrupted())
+		{
+			long now = System.nanoTime();
+			if (now < deadline)
+			{
+				LockSupport.parkNanos(deadline - now);
+				continue;
+			}
+
+			for (int caughtUp = 0; now >= deadline && caughtUp < maxCatchUp; caughtUp++)
+			{
+				if (now - deadline >= frameNanos)
+				{
+					missedDeadlines++;
+				}
+				frame();
+				deadline += frameNanos;
+				now = System.nanoTime();
+			}
+			if (now >= deadline)
+			{
+				long behind = (now - deadline) / frameNanos + 1;
+				droppedFrames += behind;
+				deadline += behind * frameNanos;
+			}
+			simulation.get().publish();
+		}
+	}
+
+	private void frame()
+	{
+		long start = System.nanoTime();
+		input.run();
+		FluidSimulation current = simulation.get();
+		int count = substeps();
+		for (int s = 0; s < count; s++)
+		{
+			current.update();
+		}
+		lastFrameNanos = System.nanoTime() - start;
+		updates += count;
+		frames++;
+		simNanos += frameNanos;
+	}
+
+	public long frames()
+	{
+		return frames;
+	}
+
+	public long updates()
+	{
+		return updates;
+	}
+
+	public long missedDeadlines()
+	{
+		return missedDeadlines;
+	}
+
+	public long droppedFrames()
+	{
+		return droppedFrames;
+	}
+
+	public long lastFrameNanos()
+	{
+		return lastFrameNanos;
+	}
+
+	public int substeps()
+	{
+		return substeps > 0 ? substeps : simulation.get().substepsPerFrame();
+	}
+
+	//simulated frame time over elapsed wall time, 1 when keeping up, lower once frames are dropped
+	public double simToWallRatio()
+	{
+		long start = startNanos;
+		if (start == 0) return 0;
+		long wall = System.nanoTime() - start;
+		return wall <= 0 ? 0 : (double) simNanos / wall;
+	}
+
+}
@@ -0,0 +1,210 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// Binary checkpoint file through a memory mapping: a fixed header, then whatever the owner writes
+// the body is in native byte order, so arrays are bulk copied between the heap and the mapped pages without conversion,
+// every array is prefixed by its length so a reader expecting a different shape fails instead of misreading
+// one mapping is limited to 2 GB, which is far more than any engine state in this project
+public class Checkpoint {
+
+    private static final int MAGIC = 0x464c4350; // "FLCP"
+    private static final int VERSION = 2; // 2: generator state as a long instead of a serialized Random
+    private static final int HEADER = 12; // magic, version, byte order of the body, all big endian
+
+    public interface Body {
+        void write(Writer out) throws IOException;
+    }
+
+    // runs body twice, once to measure and once into a file mapped at exactly that size
+    // the file is written next to the target and moved over it, so a crash mid-write keeps the previous checkpoint
+    public static void write(Path file, Body body) throws IOException {
+        Writer measure = new Writer(null);
+        body.write(measure);
+        long bytes = HEADER + measure.size;
+        if (bytes > Integer.MAX_VALUE) throw new IOException("checkpoint of " + bytes + " bytes does not fit one mapping");
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            map.order(ByteOrder.BIG_ENDIAN);
+            map.putInt(MAGIC).putInt(VERSION).putInt(ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN ? 0 : 1);
+            map.order(ByteOrder.nativeOrder());
+            Writer out = new Writer(map);
+            body.write(out);
+            if (out.size != measure.size) throw new IOException("checkpoint body wrote " + out.size + " bytes, measured " + measure.size);
+            map.force();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // maps the file read-only and checks the header, the mapping stays valid after the channel is closed
+    public static Reader open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long bytes = channel.size();
+            if (bytes < HEADER) throw new IOException(file + " is not a checkpoint");
+            if (bytes > Integer.MAX_VALUE) throw new IOException(file + " is larger than one mapping");
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, bytes);
+            map.order(ByteOrder.BIG_ENDIAN);
+            if (map.getInt() != MAGIC) throw new IOException(file + " is not a checkpoint");
+            int version = map.getInt();
+            if (version != VERSION) throw new IOException(file + " has checkpoint version " + version + ", expected " + VERSION);
+            map.order(map.getInt() == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+            return new Reader(map);
+        }
+    }
+
+    public static class Writer {
+        private final ByteBuffer buffer; // null while measuring
+        private long size = 0;
+
+        private Writer(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        public void putInt(int value) {
+            if (buffer != null) buffer.putInt(value);
+            size += 4;
+        }
+
+        public void putLong(long value) {
+            if (buffer != null) buffer.putLong(value);
+            size += 8;
+        }
+
+        public void putFloat(float value) {
+            if (buffer != null) buffer.putFloat(value);
+            size += 4;
+        }
+
+        public void putBoolean(boolean value) {
+            putInt(value ? 1 : 0);
+        }
+
+        public void putString(String value) {
+            putBytes(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        // length, then the bytes padded to a multiple of 4 so the arrays after it stay aligned
+        public void putBytes(byte[] values) {
+            putInt(values.length);
+            int padded = (values.length + 3) & ~3;
+            if (buffer != null) {
+                buffer.put(values);
+                for (int i = values.length; i < padded; i++) buffer.put((byte) 0);
+            }
+            size += padded;
+        }
+
+        // the first count values
+        public void putInts(int[] values, int count) {
+            putInt(count);
+            if (buffer != null) {
+                buffer.asIntBuffer().put(values, 0, count);
+                buffer.position(buffer.position() + count * 4);
+            }
+            size += 4L * count;
+        }
+
+        public void putFloats(float[] values, int count) {
+            putInt(count);
+            if (buffer != null) {
+                buffer.asFloatBuffer().put(values, 0, count);
+                buffer.position(buffer.position() + count * 4);
+            }
+            size += 4L * count;
+        }
+
+        // generator state, so that a restored run draws the same numbers the original would have
+        public void putRandom(StateRandom random) {
+            putLong(random.state());
+        }
+    }
+
+    public static class Reader {
+        private final ByteBuffer buffer;
+
+        private Reader(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        private void need(long bytes) throws IOException {
+            if (buffer.remaining() < bytes) throw new IOException("checkpoint is truncated");
+        }
+
+        public int getInt() throws IOException {
+            need(4);
+            return buffer.getInt();
+        }
+
+        public long getLong() throws IOException {
+            need(8);
+            return buffer.getLong();
+        }
+
+        public float getFloat() throws IOException {
+            need(4);
+            return buffer.getFloat();
+        }
+
+        public boolean getBoolean() throws IOException {
+            return getInt() != 0;
+        }
+
+        public String getString() throws IOException {
+            return new String(getBytes(), StandardCharsets.UTF_8);
+        }
+
+        public byte[] getBytes() throws IOException {
+            int length = getInt();
+            int padded = (length + 3) & ~3;
+            need(padded);
+            byte[] values = new byte[length];
+            buffer.get(values);
+            buffer.position(buffer.position() + padded - length);
+            return values;
+        }
+
+        // reads exactly count values into the start of values
+        public void getInts(int[] values, int count) throws IOException {
+            expectCount(count);
+            buffer.asIntBuffer().get(values, 0, count);
+            buffer.position(buffer.position() + count * 4);
+        }
+
+        public void getFloats(float[] values, int count) throws IOException {
+            expectCount(count);
+            buffer.asFloatBuffer().get(values, 0, count);
+            buffer.position(buffer.position() + count * 4);
+        }
+
+        private void expectCount(int count) throws IOException {
+            int stored = getInt();
+            if (stored != count) throw new IOException("checkpoint array has " + stored + " values, expected " + count);
+            need(4L * count);
+        }
+
+        // a plain long, nothing from the file is ever deserialized into objects
+        public StateRandom getRandom() throws IOException {
+            StateRandom random = new StateRandom(0);
+            random.setState(getLong());
+            return random;
+        }
+
+        // call after the last read, a checkpoint with bytes left over was written by something else
+        public void finish() throws IOException {
+            if (buffer.hasRemaining()) throw new IOException("checkpoint has " + buffer.remaining() + " unread bytes");
+        }
+    }
+
+}
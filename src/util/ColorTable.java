@@ -0,0 +1,29 @@
+package util;
+
+// Precomputed colors for a scalar in [0, range), replaces a Color.HSBtoRGB call and a Color allocation per cell
+public class ColorTable {
+
+    public interface Shade {
+        int rgb(float value);
+    }
+
+    private final int[] table;
+    private final float scale;
+
+    public ColorTable(float range, int size, Shade shade) {
+        this.table = new int[size];
+        this.scale = size / range;
+        for (int i = 0; i < size; i++) {
+            table[i] = shade.rgb((i + 0.5f) / scale) & 0xffffff; // sample the middle of each bucket
+        }
+    }
+
+    // values outside the range are clamped to the first or last entry
+    public int rgb(float value) {
+        int i = (int) (value * scale);
+        if (i < 0) return table[0];
+        if (i >= table.length) return table[table.length - 1];
+        return table[i];
+    }
+
+}
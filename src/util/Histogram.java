@@ -0,0 +1,80 @@
+package util;
+
+import java.util.Arrays;
+
+// Log-linear histogram of non-negative longs in the spirit of HdrHistogram: values below 64 are exact, larger ones fall
+// into one of 32 buckets per power of two (at most 1/32 relative error), the whole long range fits a fixed array,
+// so record() is an array increment and never allocates
+// single writer, readers on other threads may see a histogram that is one record behind
+public class Histogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int EXACT = 2 * SUB;
+
+    private final long[] counts = new long[(64 - SUB_BITS) * SUB];
+    private long count = 0;
+    private long sum = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts[index(value)]++;
+        count++;
+        sum += value;
+        if (value < min) min = value;
+        if (value > max) max = value;
+    }
+
+    static int index(long value) {
+        if (value < EXACT) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB + (int) (value >>> shift) - SUB;
+    }
+
+    // largest value that lands in bucket index
+    static long highest(int index) {
+        if (index < EXACT) return index;
+        int shift = index / SUB - 1;
+        long mantissa = index % SUB + SUB;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    // smallest recorded value v such that p percent of the values are <= v, within the bucket precision
+    public long percentile(double p) {
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(p / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(highest(i), max);
+        }
+        return max;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public double mean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    public long min() {
+        return count == 0 ? 0 : min;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+}
@@ -0,0 +1,70 @@
+package util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Bounded lock-free queue of (x, y) injection points, any number of producers (input thread, scripts, network stand-ins)
+// and one consumer that drains everything pending in one batch at the start of a step.
+// Points are packed into one long per slot, so nothing is boxed and a slot is published by a single write.
+public class InjectionQueue {
+
+    private static final long EMPTY = Long.MIN_VALUE; // x = Integer.MIN_VALUE, y = 0 is never offered, see offer()
+
+    private final AtomicLongArray slots;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(); // next slot to drain, written by the consumer only
+    private final AtomicLong tail = new AtomicLong(); // next slot to claim
+    private final AtomicLong dropped = new AtomicLong();
+
+    public InjectionQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) slots.set(i, EMPTY);
+    }
+
+    // any thread, returns false (and counts the point as dropped) when the queue is full
+    public boolean offer(int x, int y) {
+        if (x == Integer.MIN_VALUE) x++; // keeps EMPTY unambiguous, far outside any window either way
+        long value = ((long) x << 32) | (y & 0xffffffffL);
+        long t;
+        do {
+            t = tail.get();
+            if (t - head.get() >= slots.length()) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        } while (!tail.compareAndSet(t, t + 1));
+        // the slot was emptied by the consumer before head moved past it
+        slots.set((int) (t & mask), value);
+        return true;
+    }
+
+    // consumer thread only, copies up to xs.length pending points in offer order and returns how many
+    // a producer that claimed a slot but has not written it yet ends the batch, its point comes with the next drain
+    public int drain(int[] xs, int[] ys) {
+        long h = head.get();
+        int n = 0;
+        while (n < xs.length) {
+            int slot = (int) (h & mask);
+            long value = slots.get(slot);
+            if (value == EMPTY) break;
+            slots.set(slot, EMPTY);
+            xs[n] = (int) (value >> 32);
+            ys[n] = (int) value;
+            n++;
+            h++;
+        }
+        head.set(h);
+        return n;
+    }
+
+    public int capacity() {
+        return slots.length();
+    }
+
+    public long dropped() {
+        return dropped.get();
+    }
+
+}
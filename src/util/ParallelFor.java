@@ -0,0 +1,68 @@
+package util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Runs index ranges on a fork/join pool, each call returns only after every chunk is done (acts as a barrier between phases)
+// with 1 thread no pool is created and the body runs inline on the calling thread
+public class ParallelFor {
+
+    public interface Range {
+        void run(int from, int to);
+    }
+
+    private static final int CHUNKS_PER_THREAD = 8; // more chunks than threads so work stealing can balance uneven ranges
+
+    private final int threads;
+    private final ForkJoinPool pool;
+
+    public ParallelFor(int threads) {
+        this.threads = Math.max(1, threads);
+        this.pool = this.threads > 1 ? new ForkJoinPool(this.threads) : null;
+    }
+
+    public int threads() {
+        return threads;
+    }
+
+    public void run(int from, int to, Range body) {
+        if (to <= from) return;
+        if (pool == null) {
+            body.run(from, to);
+            return;
+        }
+        int grain = Math.max(1, (to - from) / (threads * CHUNKS_PER_THREAD));
+        pool.invoke(new RangeTask(body, from, to, grain));
+    }
+
+    public void shutdown() {
+        if (pool != null) pool.shutdown();
+    }
+
+    private static class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Range body;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        RangeTask(Range body, int from, int to, int grain) {
+            this.body = body;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                body.run(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new RangeTask(body, from, mid, grain), new RangeTask(body, mid, to, grain));
+        }
+    }
+
+}
@@ -0,0 +1,119 @@
+package util;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+// Software renderer writing straight into the int[] of a BufferedImage, drawn with a single drawImage per frame.
+// A frame is rasterized in bands of rows on a shared pool, every primitive is clipped to the band it is drawn into so
+// each pixel is written by one task and overlapping primitives keep their drawing order.
+public class PixelRaster {
+
+    public interface Band {
+        void draw(int yFrom, int yTo);
+    }
+
+    private static final int BAND_ROWS = 16;
+    private static final ParallelFor rows = new ParallelFor(Runtime.getRuntime().availableProcessors());
+
+    public final int width;
+    public final int height;
+    public final int[] pixels; // row major, 0xRRGGBB
+
+    private final BufferedImage image;
+
+    public PixelRaster(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+
+    // clears every band to black, then runs the band body on it
+    public void draw(Band band) {
+        int bands = (height + BAND_ROWS - 1) / BAND_ROWS;
+        rows.run(0, bands, (from, to) -> {
+            int yFrom = from * BAND_ROWS;
+            int yTo = Math.min(height, to * BAND_ROWS);
+            Arrays.fill(pixels, yFrom * width, yTo * width, 0);
+            band.draw(yFrom, yTo);
+        });
+    }
+
+    public void blit(Graphics g) {
+        g.drawImage(image, 0, 0, null);
+    }
+
+    // same pixels as Graphics.fillRect, x..x+w-1 and y..y+h-1
+    public void fillRect(int x, int y, int w, int h, int rgb, int yFrom, int yTo) {
+        int x0 = Math.max(x, 0);
+        int x1 = Math.min(x + w, width);
+        int y0 = Math.max(y, yFrom);
+        int y1 = Math.min(y + h, yTo);
+        if (x0 >= x1) return;
+        for (int row = y0; row < y1; row++) {
+            Arrays.fill(pixels, row * width + x0, row * width + x1, rgb);
+        }
+    }
+
+    // same pixels as Graphics.drawRect, the outline covers x..x+w and y..y+h
+    public void drawRect(int x, int y, int w, int h, int rgb, int yFrom, int yTo) {
+        fillRect(x, y, w + 1, 1, rgb, yFrom, yTo);
+        fillRect(x, y + h, w + 1, 1, rgb, yFrom, yTo);
+        fillRect(x, y + 1, 1, h - 1, rgb, yFrom, yTo);
+        fillRect(x + w, y + 1, 1, h - 1, rgb, yFrom, yTo);
+    }
+
+    public void stamp(Stamp stamp, int x, int y, int rgb, int yFrom, int yTo) {
+        int y0 = Math.max(y, yFrom);
+        int y1 = Math.min(y + stamp.height, yTo);
+        for (int row = y0; row < y1; row++) {
+            int r = row - y;
+            if (stamp.spanEnd[r] <= stamp.spanStart[r]) continue;
+            int x0 = Math.max(x + stamp.spanStart[r], 0);
+            int x1 = Math.min(x + stamp.spanEnd[r], width);
+            if (x0 < x1) Arrays.fill(pixels, row * width + x0, row * width + x1, rgb);
+        }
+    }
+
+    // one horizontal span per row, captured from what Java2D draws so splats match the old per-particle fillOval
+    public static class Stamp {
+        public final int height;
+        private final int[] spanStart;
+        private final int[] spanEnd;
+
+        private Stamp(int height) {
+            this.height = height;
+            this.spanStart = new int[height];
+            this.spanEnd = new int[height];
+        }
+
+        public static Stamp oval(int diameter) {
+            int size = diameter + 2;
+            BufferedImage mask = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = mask.createGraphics();
+            g.setColor(Color.WHITE);
+            g.fillOval(0, 0, diameter, diameter);
+            g.dispose();
+
+            Stamp stamp = new Stamp(size);
+            for (int y = 0; y < size; y++) {
+                int start = size;
+                int end = 0;
+                for (int x = 0; x < size; x++) {
+                    if ((mask.getRGB(x, y) & 0xffffff) != 0) {
+                        start = Math.min(start, x);
+                        end = x + 1;
+                    }
+                }
+                stamp.spanStart[y] = start;
+                stamp.spanEnd[y] = end;
+            }
+            return stamp;
+        }
+    }
+
+}
@@ -0,0 +1,569 @@
+package util;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+// Linearized quadtree over an N x N grid, nodes are indices into pooled primitive arrays
+// children are allocated as blocks of 4 consecutive nodes (NW, NE, SW, SE), coarsening returns the block to a free list,
+// so a depth first walk visits the leaves in Morton (Z) order
+public class QuadTree {
+
+    public enum QuadProps {
+        d(0), d0(1), Vx(2), Vy(3), Vx0(4), Vy0(5);
+
+        public final int value;
+
+        private QuadProps(int value) {
+            this.value = value;
+        }
+    }
+
+    public static final int PROPS = QuadProps.values().length;
+    public static final int NONE = -1;
+    private static final int FREED = -2; // child value of nodes in the free list
+
+    /*
+	Border nodes are 0 .. 4N + 3:
+	- [0, N - 1] = N
+	- [N, 2N - 1] = s
+	- [2N, 3N - 1] = W
+	- [3N, 4N - 1] = E
+	- 4N = NW
+	- 4N + 1 = NE
+	- 4N + 2 = SW
+	- 4N + 3 = SE
+	 */
+
+    // order: north, south, west, east
+    public static final int NORTH = 0;
+    public static final int SOUTH = 1;
+    public static final int WEST = 2;
+    public static final int EAST = 3;
+    private static final int[] A = {2, 0, 1, 0};
+    private static final int[] B = {3, 1, 3, 2};
+    private static final int[] C = {0, 2, 0, 1};
+    private static final int[] D = {1, 3, 2, 3};
+    public static final int DIRECTIONS = A.length;
+
+    public final int N;
+    public final int borderCount;
+    public final int root;
+    public final int[] owner; // leaf next to each border node, its value is mirrored by setBounds
+
+    // node pool
+    // NOTE: i is index of x position, j is index of y position
+    // actual range is [jStart, jEnd - 1] and [iStart, iEnd - 1]
+    public int[] parent;
+    public int[] child; // first of the 4 children, NONE for leaves, FREED for nodes in the free list
+    public int[] iStart;
+    public int[] jStart;
+    public int[] iEnd;
+    public int[] jEnd;
+    public int[] depth; // root is 0
+    public float[][] props; // props[QuadProps.x.value][node]
+
+    // leaf covering each cell, cell (i, j) is leafMap[i + j * N], kept up to date by refine / coarsen
+    public final int[] leafMap;
+    private int used;
+    private int[] freeBlocks = new int[16];
+    private int freeCount = 0;
+
+    // leaves in Morton order, rebuilt when the topology changed
+    public int[] leaves = new int[16];
+    public int leafCount = 0;
+
+    // neighbor cache in CSR form, in leaf order: the neighbor leaves (or border nodes) of leaves[k] in direction dir are
+    // nbr[nbrStart[k * 4 + dir] .. nbrStart[k * 4 + dir + 1] - 1]
+    // only leaves marked dirty by refine / coarsen are searched again, the lists of the other leaves are copied over
+    // weights, all in fine cell units:
+    // - averaged stencils: nbrWeight = lapWeight = 1 / (neighbors in that direction), every leaf is treated as a unit cell
+    // - face weighted stencils (finite volume): nbrWeight = face length / leaf area, for divergence and gradient,
+    //   lapWeight = face length / (center distance * leaf area) and lapDiag[k] = sum of lapWeight, for the Laplacian
+    public int[] nbrStart = new int[16 * DIRECTIONS + 1];
+    public int[] nbr = new int[16 * DIRECTIONS];
+    public float[] nbrWeight = new float[16 * DIRECTIONS];
+    public float[] lapWeight = new float[16 * DIRECTIONS];
+    public float[] lapDiag = new float[16];
+    private boolean faceWeighted = false;
+    private int[] spareStart = new int[16 * DIRECTIONS + 1];
+    private int[] spareNbr = new int[16 * DIRECTIONS];
+    private float[] spareWeight = new float[16 * DIRECTIONS];
+    private float[] spareLapWeight = new float[16 * DIRECTIONS];
+    private float[] spareLapDiag = new float[16];
+    private int[] leafSlot; // position of each leaf in leaves at the last relink, NONE if not linked yet
+    private boolean[] dirty;
+    private int[] dirtyList = new int[16];
+    private int dirtyCount = 0;
+    private boolean allDirty = true;
+
+    // cache counters, cumulative
+    public long relinks = 0; // relinks that had at least one dirty leaf
+    public long recomputedLeaves = 0; // leaves whose neighbors were searched again
+    public long reusedLeaves = 0; // leaves whose cached neighbors were copied
+
+    // scratch
+    private int[] queue = new int[16];
+
+    public QuadTree(int N) {
+        this.N = N;
+        this.borderCount = 4 * N + 4;
+        this.owner = new int[borderCount];
+        this.leafMap = new int[N * N];
+        allocate(borderCount + 1 + 4 * N * N * 4 / 3);
+
+        for (int i = 0; i < N; i++) { // N
+            initNode(newNode(), NONE, i, -1, i + 1, 0);
+        }
+        for (int i = 0; i < N; i++) { // S
+            initNode(newNode(), NONE, i, N, i + 1, N + 1);
+        }
+        for (int i = 0; i < N; i++) { // W
+            initNode(newNode(), NONE, -1, i, 0, i + 1);
+        }
+        for (int i = 0; i < N; i++) { // E
+            initNode(newNode(), NONE, N, i, N + 1, i + 1);
+        }
+        initNode(newNode(), NONE, -1, -1, 0, 0); // NW
+        initNode(newNode(), NONE, N, -1, N + 1, 0); // NE
+        initNode(newNode(), NONE, -1, N, 0, N + 1); // SW
+        initNode(newNode(), NONE, N, N, N + 1, N + 1); // SE
+
+        this.root = newNode();
+        initNode(root, NONE, 0, 0, N, N);
+        mapLeaf(root);
+    }
+
+    private void allocate(int capacity) {
+        parent = new int[capacity];
+        child = new int[capacity];
+        iStart = new int[capacity];
+        jStart = new int[capacity];
+        iEnd = new int[capacity];
+        jEnd = new int[capacity];
+        depth = new int[capacity];
+        props = new float[PROPS][capacity];
+        leafSlot = new int[capacity];
+        dirty = new boolean[capacity];
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= parent.length) return;
+        capacity = Math.max(capacity, parent.length * 2);
+        parent = Arrays.copyOf(parent, capacity);
+        child = Arrays.copyOf(child, capacity);
+        iStart = Arrays.copyOf(iStart, capacity);
+        jStart = Arrays.copyOf(jStart, capacity);
+        iEnd = Arrays.copyOf(iEnd, capacity);
+        jEnd = Arrays.copyOf(jEnd, capacity);
+        depth = Arrays.copyOf(depth, capacity);
+        for (int p = 0; p < PROPS; p++) props[p] = Arrays.copyOf(props[p], capacity);
+        leafSlot = Arrays.copyOf(leafSlot, capacity);
+        dirty = Arrays.copyOf(dirty, capacity);
+    }
+
+    private int newNode() {
+        ensureCapacity(used + 1);
+        return used++;
+    }
+
+    private int newBlock() {
+        if (freeCount > 0) return freeBlocks[--freeCount];
+        ensureCapacity(used + 4);
+        int first = used;
+        used += 4;
+        return first;
+    }
+
+    private void initNode(int n, int parentNode, int iStart, int jStart, int iEnd, int jEnd) {
+        this.parent[n] = parentNode;
+        this.child[n] = NONE;
+        this.iStart[n] = iStart;
+        this.jStart[n] = jStart;
+        this.iEnd[n] = iEnd;
+        this.jEnd[n] = jEnd;
+        this.depth[n] = parentNode == NONE ? 0 : depth[parentNode] + 1;
+        this.leafSlot[n] = NONE;
+        this.dirty[n] = false;
+        for (int p = 0; p < PROPS; p++) props[p][n] = 0;
+    }
+
+    public boolean isLeaf(int n) {
+        return child[n] == NONE;
+    }
+
+    public int nodeCount() {
+        return used - 4 * freeCount;
+    }
+
+    public boolean canRefine(int n) {
+        return iStart[n] < iEnd[n] - 1;
+    }
+
+    // true if n is not a leaf and all 4 children are
+    public boolean canCoarsen(int n) {
+        int c = child[n];
+        return c >= 0 && isLeaf(c) && isLeaf(c + 1) && isLeaf(c + 2) && isLeaf(c + 3);
+    }
+
+    public boolean refine(int n) { // returns false if failed to refine (already at unit area)
+        if (!canRefine(n)) return false;
+        int midI = (iStart[n] + iEnd[n]) / 2;
+        int midJ = (jStart[n] + jEnd[n]) / 2;
+        int c = newBlock();
+        initNode(c, n, iStart[n], jStart[n], midI, midJ);
+        initNode(c + 1, n, midI, jStart[n], iEnd[n], midJ);
+        initNode(c + 2, n, iStart[n], midJ, midI, jEnd[n]);
+        initNode(c + 3, n, midI, midJ, iEnd[n], jEnd[n]);
+        for (int q = c; q < c + 4; q++) {
+            props[QuadProps.d.value][q] = props[QuadProps.d.value][n];
+            props[QuadProps.Vx.value][q] = props[QuadProps.Vx.value][n];
+            props[QuadProps.Vy.value][q] = props[QuadProps.Vy.value][n];
+        }
+
+        for (int p = 0; p < PROPS; p++) props[p][n] = 0;
+        markNeighborsDirty(n);
+        child[n] = c;
+        for (int q = c; q < c + 4; q++) {
+            markDirty(q);
+            mapLeaf(q);
+        }
+        return true;
+    }
+
+    // merges the 4 leaf children of n into n, props are averaged
+    public void coarsen(int n) {
+        int c = child[n];
+        for (int p = 0; p < PROPS; p++) {
+            float[] x = props[p];
+            x[n] = (x[n] + x[c] + x[c + 1] + x[c + 2] + x[c + 3]) / 4;
+        }
+
+        for (int q = c; q < c + 4; q++) markNeighborsDirty(q);
+        if (freeCount == freeBlocks.length) freeBlocks = Arrays.copyOf(freeBlocks, freeCount * 2);
+        freeBlocks[freeCount++] = c;
+        for (int q = c; q < c + 4; q++) child[q] = FREED;
+        child[n] = NONE;
+        markDirty(n);
+        mapLeaf(n);
+    }
+
+    private void mapLeaf(int n) {
+        for (int j = jStart[n]; j < jEnd[n]; j++) {
+            Arrays.fill(leafMap, iStart[n] + j * N, iEnd[n] + j * N, n);
+        }
+    }
+
+    // drops the whole neighbor cache, the next relink searches every leaf
+    public void invalidateAll() {
+        allDirty = true;
+    }
+
+    public boolean isFaceWeighted() {
+        return faceWeighted;
+    }
+
+    public void setFaceWeighted(boolean faceWeighted) {
+        if (this.faceWeighted == faceWeighted) return;
+        this.faceWeighted = faceWeighted;
+        invalidateAll();
+    }
+
+    // position of leaf n in leaves (and the neighbor cache) at the last relink, NONE for leaves created since
+    public int slot(int n) {
+        return leafSlot[n];
+    }
+
+    private void markDirty(int n) {
+        if (allDirty || n < borderCount || !isLeaf(n) || dirty[n]) return;
+        dirty[n] = true;
+        if (dirtyCount == dirtyList.length) dirtyList = Arrays.copyOf(dirtyList, dirtyCount * 2);
+        dirtyList[dirtyCount++] = n;
+    }
+
+    // leaves created since the last relink have no list, their neighbors were marked when their parent was refined
+    private void markNeighborsDirty(int n) {
+        if (allDirty || leafSlot[n] == NONE) return;
+        int k = leafSlot[n];
+        for (int e = nbrStart[k * DIRECTIONS], end = nbrStart[(k + 1) * DIRECTIONS]; e < end; e++) {
+            markDirty(nbr[e]);
+        }
+    }
+
+    // rebuilds the Morton ordered leaf list and the neighbor cache if the topology changed since the last call
+    public void relink() {
+        if (!allDirty && dirtyCount == 0) return;
+
+        leafCount = 0;
+        collectLeaves(root);
+
+        if (spareStart.length < leafCount * DIRECTIONS + 1) spareStart = new int[leafCount * DIRECTIONS * 2 + 1];
+        if (spareLapDiag.length < leafCount) spareLapDiag = new float[leafCount * 2];
+        int e = 0;
+        for (int k = 0; k < leafCount; k++) {
+            int n = leaves[k];
+            if (allDirty || dirty[n]) {
+                for (int dir = 0; dir < DIRECTIONS; dir++) {
+                    spareStart[k * DIRECTIONS + dir] = e;
+                    e = findLNeighbors(n, dir, e);
+                }
+                spareLapDiag[k] = weigh(n, k, e);
+                recomputedLeaves++;
+            } else {
+                int old = leafSlot[n] * DIRECTIONS;
+                int from = nbrStart[old];
+                int length = nbrStart[old + DIRECTIONS] - from;
+                ensureSpare(e + length);
+                for (int dir = 0; dir < DIRECTIONS; dir++) {
+                    spareStart[k * DIRECTIONS + dir] = e + nbrStart[old + dir] - from;
+                }
+                System.arraycopy(nbr, from, spareNbr, e, length);
+                System.arraycopy(nbrWeight, from, spareWeight, e, length);
+                System.arraycopy(lapWeight, from, spareLapWeight, e, length);
+                spareLapDiag[k] = lapDiag[leafSlot[n]];
+                e += length;
+                reusedLeaves++;
+            }
+            leafSlot[n] = k;
+        }
+        spareStart[leafCount * DIRECTIONS] = e;
+
+        int[] start = nbrStart; nbrStart = spareStart; spareStart = start;
+        int[] neighbors = nbr; nbr = spareNbr; spareNbr = neighbors;
+        float[] weights = nbrWeight; nbrWeight = spareWeight; spareWeight = weights;
+        weights = lapWeight; lapWeight = spareLapWeight; spareLapWeight = weights;
+        weights = lapDiag; lapDiag = spareLapDiag; spareLapDiag = weights;
+
+        for (int i = 0; i < dirtyCount; i++) dirty[dirtyList[i]] = false;
+        dirtyCount = 0;
+        allDirty = false;
+        relinks++;
+    }
+
+    // fills the stencil weights of the freshly found neighbors of leaf n (slot k, entries up to end), returns the diagonal
+    private float weigh(int n, int k, int end) {
+        if (!faceWeighted) {
+            for (int dir = 0; dir < DIRECTIONS; dir++) {
+                int from = spareStart[k * DIRECTIONS + dir];
+                int to = dir + 1 < DIRECTIONS ? spareStart[k * DIRECTIONS + dir + 1] : end;
+                float weight = 1f / (to - from);
+                for (int f = from; f < to; f++) {
+                    spareWeight[f] = weight;
+                    spareLapWeight[f] = weight;
+                }
+            }
+            return DIRECTIONS;
+        }
+
+        float width = iEnd[n] - iStart[n];
+        float height = jEnd[n] - jStart[n];
+        float area = width * height;
+        float diag = 0f;
+        for (int dir = 0; dir < DIRECTIONS; dir++) {
+            int from = spareStart[k * DIRECTIONS + dir];
+            int to = dir + 1 < DIRECTIONS ? spareStart[k * DIRECTIONS + dir + 1] : end;
+            for (int f = from; f < to; f++) {
+                int m = spareNbr[f];
+                float face, distance;
+                if (dir == NORTH || dir == SOUTH) {
+                    face = Math.min(iEnd[n], iEnd[m]) - Math.max(iStart[n], iStart[m]);
+                    distance = 0.5f * (height + jEnd[m] - jStart[m]);
+                } else {
+                    face = Math.min(jEnd[n], jEnd[m]) - Math.max(jStart[n], jStart[m]);
+                    distance = 0.5f * (width + iEnd[m] - iStart[m]);
+                }
+                spareWeight[f] = face / area;
+                spareLapWeight[f] = face / (distance * area);
+                diag += spareLapWeight[f];
+            }
+        }
+        return diag;
+    }
+
+    private void collectLeaves(int n) {
+        if (isLeaf(n)) {
+            if (leafCount == leaves.length) leaves = Arrays.copyOf(leaves, leafCount * 2);
+            leaves[leafCount++] = n;
+        } else {
+            for (int c = child[n]; c < child[n] + 4; c++) collectLeaves(c);
+        }
+    }
+
+    private int findGENeighbor(int n, int dir) {
+        int p = parent[n];
+        if (p == NONE) return NONE;
+        int pos = n - child[p];
+        if (pos == A[dir]) return child[p] + C[dir];
+        if (pos == B[dir]) return child[p] + D[dir];
+
+        int node = findGENeighbor(p, dir);
+        if (node == NONE || isLeaf(node)) return node;
+
+        if (pos == C[dir]) return child[node] + A[dir];
+        else return child[node] + B[dir];
+    }
+
+    // appends the leaf neighbors of n in direction dir to spareNbr from index e, returns the new end
+    private int findLNeighbors(int n, int dir, int e) {
+        int neighbor = findGENeighbor(n, dir);
+        if (neighbor == NONE) {
+            int start, end, offset;
+            if (dir == 0) { // N
+                start = iStart[n]; end = iEnd[n]; offset = 0;
+            } else if (dir == 1) { // S
+                start = iStart[n]; end = iEnd[n]; offset = N;
+            } else if (dir == 2) { // W
+                start = jStart[n]; end = jEnd[n]; offset = 2 * N;
+            } else { // E
+                start = jStart[n]; end = jEnd[n]; offset = 3 * N;
+            }
+            for (int i = start; i < end; i++) {
+                e = appendNeighbor(e, i + offset);
+                owner[i + offset] = n;
+            }
+            return e;
+        }
+
+        int head = 0, tail = 0;
+        queue[tail++] = neighbor;
+        while (head < tail) {
+            int candidate = queue[head++];
+            if (isLeaf(candidate)) e = appendNeighbor(e, candidate);
+            else {
+                if (tail + 2 > queue.length) queue = Arrays.copyOf(queue, queue.length * 2);
+                queue[tail++] = child[candidate] + A[dir];
+                queue[tail++] = child[candidate] + B[dir];
+            }
+        }
+        return e;
+    }
+
+    private int appendNeighbor(int e, int n) {
+        ensureSpare(e + 1);
+        spareNbr[e] = n;
+        return e + 1;
+    }
+
+    private void ensureSpare(int size) {
+        if (size <= spareNbr.length) return;
+        size = Math.max(size, spareNbr.length * 2);
+        spareNbr = Arrays.copyOf(spareNbr, size);
+        spareWeight = Arrays.copyOf(spareWeight, size);
+        spareLapWeight = Arrays.copyOf(spareLapWeight, size);
+    }
+
+    // off-diagonal part of the Laplacian stencil of leaves[k], its diagonal is lapDiag[k]
+    public float neighborSum(int k, float[] x) {
+        float sum = 0f;
+        for (int e = nbrStart[k * DIRECTIONS], end = nbrStart[(k + 1) * DIRECTIONS]; e < end; e++) {
+            sum += lapWeight[e] * x[nbr[e]];
+        }
+        return sum;
+    }
+
+    // average of x over the neighbors of leaves[k] in direction dir, scaled by face length / leaf area with face weighted stencils
+    public float neighborAverage(int k, int dir, float[] x) {
+        float avg = 0f;
+        for (int e = nbrStart[k * DIRECTIONS + dir], end = nbrStart[k * DIRECTIONS + dir + 1]; e < end; e++) {
+            avg += nbrWeight[e] * x[nbr[e]];
+        }
+        return avg;
+    }
+
+    // node pool, free list and props, plus the leaf map, leaf list and neighbor cache if they are up to date,
+    // so that a restore is a plain copy instead of a full relink
+    public void write(Checkpoint.Writer out) {
+        out.putInt(used);
+        for (int[] field : new int[][] { parent, child, iStart, jStart, iEnd, jEnd, depth }) {
+            out.putInts(field, used);
+        }
+        for (int p = 0; p < PROPS; p++) out.putFloats(props[p], used);
+        out.putInt(freeCount);
+        out.putInts(freeBlocks, freeCount);
+        out.putBoolean(faceWeighted);
+        out.putLong(relinks);
+        out.putLong(recomputedLeaves);
+        out.putLong(reusedLeaves);
+
+        boolean linked = !allDirty && dirtyCount == 0;
+        out.putBoolean(linked);
+        if (linked) {
+            int edges = nbrStart[leafCount * DIRECTIONS];
+            out.putInts(leafMap, leafMap.length);
+            out.putInt(leafCount);
+            out.putInts(leaves, leafCount);
+            out.putInts(nbrStart, leafCount * DIRECTIONS + 1);
+            out.putInts(nbr, edges);
+            out.putFloats(nbrWeight, edges);
+            out.putFloats(lapWeight, edges);
+            out.putFloats(lapDiag, leafCount);
+            out.putInts(owner, borderCount);
+        }
+    }
+
+    // replaces the whole tree with one written by a tree of the same N
+    public void read(Checkpoint.Reader in) throws IOException {
+        int count = in.getInt();
+        if (count <= root) throw new IOException("checkpoint tree has " + count + " nodes, a tree of size " + N + " has at least " + (root + 1));
+        ensureCapacity(count);
+        used = count;
+        for (int[] field : new int[][] { parent, child, iStart, jStart, iEnd, jEnd, depth }) {
+            in.getInts(field, used);
+        }
+        for (int p = 0; p < PROPS; p++) in.getFloats(props[p], used);
+        int free = in.getInt();
+        if (freeBlocks.length < free) freeBlocks = new int[free];
+        in.getInts(freeBlocks, free);
+        freeCount = free;
+        faceWeighted = in.getBoolean();
+        long savedRelinks = in.getLong();
+        long savedRecomputed = in.getLong();
+        long savedReused = in.getLong();
+
+        Arrays.fill(leafSlot, 0, used, NONE);
+        Arrays.fill(dirty, 0, used, false);
+        dirtyCount = 0;
+        if (in.getBoolean()) {
+            in.getInts(leafMap, leafMap.length);
+            leafCount = in.getInt();
+            if (leaves.length < leafCount) leaves = new int[leafCount];
+            in.getInts(leaves, leafCount);
+            if (nbrStart.length < leafCount * DIRECTIONS + 1) nbrStart = new int[leafCount * DIRECTIONS + 1];
+            in.getInts(nbrStart, leafCount * DIRECTIONS + 1);
+            int edges = nbrStart[leafCount * DIRECTIONS];
+            if (nbr.length < edges) {
+                nbr = new int[edges];
+                nbrWeight = new float[edges];
+                lapWeight = new float[edges];
+            }
+            in.getInts(nbr, edges);
+            in.getFloats(nbrWeight, edges);
+            in.getFloats(lapWeight, edges);
+            if (lapDiag.length < leafCount) lapDiag = new float[leafCount];
+            in.getFloats(lapDiag, leafCount);
+            in.getInts(owner, borderCount);
+            for (int k = 0; k < leafCount; k++) leafSlot[leaves[k]] = k;
+            allDirty = false;
+        } else {
+            mapLeaves(root); // the leaf list and neighbor cache wait for the next relink, as they did in the saved tree
+            leafCount = 0;
+            invalidateAll();
+        }
+
+        relinks = savedRelinks;
+        recomputedLeaves = savedRecomputed;
+        reusedLeaves = savedReused;
+    }
+
+    private void mapLeaves(int n) {
+        if (isLeaf(n)) mapLeaf(n);
+        else for (int c = child[n]; c < child[n] + 4; c++) mapLeaves(c);
+    }
+
+    // leaf containing cell (i, j), indices outside the grid end up in the nearest leaf on that side
+    public int search(int i, int j) {
+        i = i < 0 ? 0 : (i >= N ? N - 1 : i);
+        j = j < 0 ? 0 : (j >= N ? N - 1 : j);
+        return leafMap[i + j * N];
+    }
+
+}
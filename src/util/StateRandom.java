@@ -0,0 +1,47 @@
+package util;
+
+import java.util.Random;
+
+// java.util.Random with its 48-bit generator state readable and settable, draws exactly the same numbers as a Random
+// with the same seed; engines use it so that a checkpoint stores the state as a plain long instead of a serialized object
+// not thread safe, each engine owns its generator; nextGaussian() keeps a cached second value that the state does not
+// cover, the engines never call it
+public class StateRandom extends Random {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    private long state; // set by setSeed from the Random constructor, so it has no initializer
+
+    public StateRandom() {
+        super();
+    }
+
+    public StateRandom(long seed) {
+        super(seed);
+    }
+
+    @Override
+    public synchronized void setSeed(long seed) {
+        super.setSeed(seed);
+        state = (seed ^ MULTIPLIER) & MASK;
+    }
+
+    @Override
+    protected int next(int bits) {
+        state = (state * MULTIPLIER + ADDEND) & MASK;
+        return (int) (state >>> (48 - bits));
+    }
+
+    public long state() {
+        return state;
+    }
+
+    public void setState(long state) {
+        this.state = state & MASK;
+    }
+
+}
@@ -0,0 +1,45 @@
+package util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Lock-free single writer / single reader triple buffer: the writer fills back() and publishes it, the reader takes the
+// latest published buffer with front(), neither side ever waits for the other and no buffer is touched by both at once
+public class TripleBuffer<T> {
+
+    private static final int INDEX = 3;
+    private static final int FRESH = 4; // set while the middle buffer holds a frame the reader has not taken yet
+
+    private final Object[] buffers;
+    private final AtomicInteger middle; // index of the middle buffer | FRESH
+    private int back = 0;  // writer side only
+    private int front = 2; // reader side only
+
+    public TripleBuffer(T a, T b, T c) {
+        this.buffers = new Object[] { a, b, c };
+        this.middle = new AtomicInteger(1);
+    }
+
+    @SuppressWarnings("unchecked")
+    public T back() {
+        return (T) buffers[back];
+    }
+
+    // hands the back buffer over to the reader and takes the old middle one as the new back buffer
+    public void publish() {
+        back = middle.getAndSet(back | FRESH) & INDEX;
+    }
+
+    // latest published buffer, stays valid until the next call to front()
+    @SuppressWarnings("unchecked")
+    public T front() {
+        if ((middle.get() & FRESH) != 0) {
+            front = middle.getAndSet(front) & INDEX;
+        }
+        return (T) buffers[front];
+    }
+
+    public boolean hasFresh() {
+        return (middle.get() & FRESH) != 0;
+    }
+
+}